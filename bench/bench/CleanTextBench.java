@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nlp.cleanHTML;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * cleanHTML's whitespace and boilerplate cleanup of the text Tika
+ * extracts from one page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CleanTextBench {
+
+	@Param({"100", "5000"})
+	public int numLines;
+
+	private String text;
+
+	@Setup
+	public void setup() {
+		text = Corpus.pageText(Corpus.random(), numLines);
+	}
+
+	@Benchmark
+	public String[] cleanText() {
+		return cleanHTML.cleanText(text);
+	}
+
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nlp.TextRunner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * TextRunner.encode/decode of one record: the bundled document, or a
+ * synthetic one with the given number of sentences.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBench {
+
+	@Param({"bundled", "100", "10000"})
+	public String doc;
+
+	private String plain;
+	private String coded;
+
+	@Setup
+	public void setup() throws Exception {
+		if (doc.equals("bundled")) {
+			plain = Corpus.bundled();
+		} else {
+			plain = Corpus.document(Corpus.random(), "bench", Integer.parseInt(doc), 20);
+		}
+		coded = TextRunner.encode(plain);
+	}
+
+	@Benchmark
+	public String encode() {
+		return TextRunner.encode(plain);
+	}
+
+	@Benchmark
+	public String decode() {
+		return TextRunner.decode(coded);
+	}
+
+}
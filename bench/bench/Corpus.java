@@ -0,0 +1,118 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks: the bundled test/input.txt and
+ * synthetic documents of a given size, generated from a fixed seed so
+ * that runs are comparable.
+ */
+public class Corpus {
+
+	private static final String[] WORDS = {
+		"the", "of", "and", "to", "in", "a", "is", "that", "for", "it",
+		"KBA", "Obama", "Madison", "Wisconsin", "teams", "submitted", "runs",
+		"corpus", "stream", "entity", "filtering", "2012", "43", "&", "\"",
+		"announced", "University", "France", "coach", "championships"
+	};
+	private static final String[] POS = {"DT", "IN", "CC", "TO", "NN", "NNP", "VBD", "CD", "JJ", "."};
+	private static final String[] NER = {"O", "O", "O", "O", "PERSON", "LOCATION", "ORGANIZATION", "DATE"};
+	private static final String[] DEPS = {"nsubj", "dobj", "det", "prep_in", "amod", "nn", "_"};
+
+	/** Path of the bundled sample document; override with -Dbench.input=... */
+	public static String bundledPath() {
+		return System.getProperty("bench.input", "test/input.txt");
+	}
+
+	public static String bundled() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(bundledPath()));
+		StringBuilder sb = new StringBuilder();
+		String line = reader.readLine();
+		while (line != null) {
+			sb.append(line).append('\n');
+			line = reader.readLine();
+		}
+		reader.close();
+		return sb.toString();
+	}
+
+	public static Random random() {
+		return new Random(20121017L);
+	}
+
+	public static String word(Random rnd) {
+		return WORDS[rnd.nextInt(WORDS.length)];
+	}
+
+	/**
+	 * A &lt;FILENAME&gt; document of numSents sentences with sentLen tokens each,
+	 * with a paragraph break every five sentences.
+	 */
+	public static String document(Random rnd, String docid, int numSents, int sentLen) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<FILENAME stream_id=\"").append(docid).append("\">\n");
+		for (int s = 0; s < numSents; s++) {
+			for (int t = 0; t < sentLen; t++) {
+				if (t > 0) sb.append(' ');
+				sb.append(word(rnd));
+			}
+			sb.append(s % 5 == 4 ? ".\n\n" : ". ");
+		}
+		sb.append("\n</FILENAME>");
+		return sb.toString();
+	}
+
+	/**
+	 * One runNER token row: id, word, offsets, POS, NER, lemma, relation,
+	 * parent, coref and mention ids.
+	 */
+	public static String[] owplRow(Random rnd, int id, int offset) {
+		String w = word(rnd);
+		return new String[] {
+			Integer.toString(id), w, offset + ":" + (offset + w.length()),
+			POS[rnd.nextInt(POS.length)], NER[rnd.nextInt(NER.length)], w.toLowerCase(),
+			DEPS[rnd.nextInt(DEPS.length)], Integer.toString(rnd.nextInt(id + 1)),
+			Integer.toString(rnd.nextInt(5) - 1), Integer.toString(rnd.nextInt(20) - 1)
+		};
+	}
+
+	/**
+	 * A SimpleTagging sentence record with the seven extra columns:
+	 * id, word, lemma, POS, NER, begin and end offsets.
+	 */
+	public static String sentenceRecord(Random rnd, String docid, int sentid, int numToks) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<SENT docid=\"").append(docid).append("\" sentid=\"").append(sentid).append("\">\n");
+		int offset = 0;
+		for (int t = 1; t <= numToks; t++) {
+			String w = word(rnd);
+			sb.append(t).append('\t').append(w).append('\t').append(w.toLowerCase()).append('\t')
+				.append(POS[rnd.nextInt(POS.length)]).append('\t').append(NER[rnd.nextInt(NER.length)])
+				.append('\t').append(offset).append('\t').append(offset + w.length()).append('\n');
+			offset += w.length() + 1;
+		}
+		sb.append("</SENT>");
+		return sb.toString();
+	}
+
+	/**
+	 * Text as Tika extracts it from a web page: paragraphs of long lines
+	 * mixed with runs of short navigation lines and stray whitespace.
+	 */
+	public static String pageText(Random rnd, int numLines) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numLines; i++) {
+			int len = rnd.nextInt(3) == 0 ? 2 : 5 + rnd.nextInt(20);
+			sb.append(rnd.nextBoolean() ? "  \t" : "");
+			for (int t = 0; t < len; t++) {
+				sb.append(word(rnd)).append(rnd.nextInt(8) == 0 ? "\t " : " ");
+			}
+			sb.append(rnd.nextInt(6) == 0 ? "\n \n\n" : "\n");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nlp.AnnotationSink;
+import nlp.runNER;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Formatting cost of runNER's output sinks for one document of 50
+ * sentences with 25 tokens each, written to a writer that discards it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SinkBench {
+
+	private static final int NUM_SENTS = 50;
+	private static final int SENT_LEN = 25;
+
+	@Param({"owpl", "conll", "escaped"})
+	public String format;
+
+	private String[][] rows;
+	private AnnotationSink sink;
+
+	static class NullWriter extends Writer {
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		public void write(String str, int off, int len) {
+		}
+
+		public void flush() {
+		}
+
+		public void close() {
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		Random rnd = Corpus.random();
+		rows = new String[NUM_SENTS * SENT_LEN][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = Corpus.owplRow(rnd, i % SENT_LEN, i * 6);
+		}
+		sink = runNER.openSink(format, new NullWriter());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		sink.close();
+	}
+
+	@Benchmark
+	public void document() throws IOException {
+		sink.startDocument("bench-doc");
+		int r = 0;
+		for (int s = 0; s < NUM_SENTS; s++) {
+			sink.startSentence(s);
+			for (int t = 0; t < SENT_LEN; t++) {
+				sink.token(rows[r], rows[r].length);
+				++ r;
+			}
+			sink.endSentence();
+		}
+		sink.endDocument();
+	}
+
+}
@@ -0,0 +1,143 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import nlp.TextRunner;
+
+import util.IO;
+
+/**
+ * Generates reproducible synthetic corpora in the formats the pipeline
+ * consumes. Document lengths (in sentences) and sentence lengths (in
+ * tokens) are drawn from log-normal distributions given by their median
+ * and sigma, capped at a maximum, which mimics the long tail of web pages.
+ */
+public class SyntheticCorpus {
+
+	private Random rnd;
+	private double doc_sents_median = 20;
+	private double doc_sents_sigma = 1.0;
+	private int doc_sents_max = 2000;
+	private double sent_len_median = 18;
+	private double sent_len_sigma = 0.5;
+	private int sent_len_max = 150;
+
+	private long numDocs = 0;
+	private long numTokens = 0;
+
+	public SyntheticCorpus(long seed) {
+		rnd = new Random(seed);
+	}
+
+	public void setDocLength(double median, double sigma, int max) {
+		doc_sents_median = median;
+		doc_sents_sigma = sigma;
+		doc_sents_max = max;
+	}
+
+	public void setSentenceLength(double median, double sigma, int max) {
+		sent_len_median = median;
+		sent_len_sigma = sigma;
+		sent_len_max = max;
+	}
+
+	/** Number of documents generated so far. */
+	public long numDocs() {
+		return numDocs;
+	}
+
+	/** Number of tokens (words and sentence-final periods) generated so far. */
+	public long numTokens() {
+		return numTokens;
+	}
+
+	private int logNormal(double median, double sigma, int max) {
+		double x = median * Math.exp(sigma * rnd.nextGaussian());
+		return (int) Math.max(1, Math.min(max, Math.round(x)));
+	}
+
+	/** A KBA-style stream id: epoch seconds, a dash and 32 hex digits. */
+	private String streamId() {
+		long epoch = 1317513600L + rnd.nextInt(1 << 24);
+		return epoch + "-" + String.format("%016x%016x", rnd.nextLong(), rnd.nextLong());
+	}
+
+	/** Body text of one document, paragraphs separated by blank lines. */
+	private String body() {
+		StringBuilder sb = new StringBuilder();
+		int numSents = logNormal(doc_sents_median, doc_sents_sigma, doc_sents_max);
+		for (int s = 0; s < numSents; s++) {
+			int len = logNormal(sent_len_median, sent_len_sigma, sent_len_max);
+			for (int t = 0; t < len; t++) {
+				if (t > 0) sb.append(' ');
+				sb.append(Corpus.word(rnd));
+			}
+			numTokens += len + 1;
+			sb.append(s % 5 == 4 ? ".\n\n" : ". ");
+		}
+		++ numDocs;
+		return sb.toString();
+	}
+
+	/**
+	 * Writes a runNER input chunk: &lt;FILENAME stream_id=...&gt; blocks.
+	 */
+	public void writeChunk(String path, int docs) throws IOException {
+		BufferedWriter os = IO.openWriter(path);
+		for (int d = 0; d < docs; d++) {
+			os.write("<FILENAME stream_id=\"" + streamId() + "\">\n");
+			os.write(body());
+			os.write("\n</FILENAME>\n");
+		}
+		os.close();
+	}
+
+	/**
+	 * Writes a TextRunner input file: one escaped &lt;FILENAME&gt; document per line.
+	 */
+	public void writeEscaped(String path, int docs) throws IOException {
+		BufferedWriter os = IO.openWriter(path);
+		for (int d = 0; d < docs; d++) {
+			String doc = "<FILENAME stream_id=\"" + streamId() + "\">\n" + body() + "\n</FILENAME>";
+			os.write(TextRunner.encode(doc));
+			os.write('\n');
+		}
+		os.close();
+	}
+
+	/**
+	 * Writes a Gigaword-style SGML file for Escaper.
+	 */
+	public void writeGigaword(String path, int docs) throws IOException {
+		BufferedWriter os = IO.openWriter(path);
+		for (int d = 0; d < docs; d++) {
+			os.write("<DOC id=\"SYN_ENG_" + d + "\" type=\"story\" >\n<TEXT>\n<P>\n");
+			os.write(body().replace("\n\n", "\n</P>\n<P>\n"));
+			os.write("\n</P>\n</TEXT>\n</DOC>\n");
+		}
+		os.close();
+	}
+
+	/**
+	 * Writes escaped seven-column sentence records, as TextRunner writes
+	 * them from SimpleTagging, for Unescaper.
+	 */
+	public void writeSentenceRecords(String path, int docs) throws IOException {
+		BufferedWriter os = IO.openWriter(path);
+		for (int d = 0; d < docs; d++) {
+			String docid = streamId();
+			int numSents = logNormal(doc_sents_median, doc_sents_sigma, doc_sents_max);
+			for (int s = 1; s <= numSents; s++) {
+				int len = logNormal(sent_len_median, sent_len_sigma, sent_len_max);
+				numTokens += len;
+				os.write(TextRunner.encode(Corpus.sentenceRecord(rnd, docid, s, len)));
+				os.write('\n');
+			}
+			++ numDocs;
+		}
+		os.close();
+	}
+
+}
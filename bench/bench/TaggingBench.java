@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nlp.SimpleTagging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SimpleTagging.process of one document per annotator profile. Loading
+ * the models takes most of a minute, so each fork is set up once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class TaggingBench {
+
+	@Param({"ner", "parse"})
+	public String profile;
+
+	@Param({"bundled", "20"})
+	public String doc;
+
+	private SimpleTagging tagger;
+	private String text;
+
+	@Setup
+	public void setup() throws Exception {
+		SimpleTagging.setParse(profile.equals("parse"));
+		tagger = new SimpleTagging();
+		tagger.init();
+		if (doc.equals("bundled")) {
+			text = Corpus.bundled();
+		} else {
+			text = Corpus.document(Corpus.random(), "bench", Integer.parseInt(doc), 20);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		tagger.cleanUp();
+	}
+
+	@Benchmark
+	public List<String> process() {
+		return tagger.process(text);
+	}
+
+}
@@ -0,0 +1,184 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nlp.Escaper;
+import nlp.TextRunner;
+import nlp.Unescaper;
+import nlp.runNER;
+
+/**
+ * End-to-end throughput of the corpus pipeline on synthetic data.
+ *
+ *   ThroughputHarness work_dir stages [num_docs [seed]]
+ *
+ * stages is a comma-separated subset of runner (runNER), tagging
+ * (TextRunner + SimpleTagging), escape (Escaper) and unescape (Unescaper),
+ * or "all". Document and sentence length distributions are set with
+ * -Dbench.doc.median/sigma/max and -Dbench.sent.median/sigma/max.
+ *
+ * Prints one JSON object with docs/sec, tokens/sec, GC time and peak RSS
+ * per stage, and writes it to work_dir/throughput.json. Peak RSS is the
+ * process high-water mark, so run one stage per JVM to attribute it.
+ * The runner and tagging stages include model loading, as a cluster job
+ * does; use enough documents to amortize it.
+ */
+public class ThroughputHarness {
+
+	private static final List<String> ALL_STAGES = Arrays.asList("runner", "tagging", "escape", "unescape");
+
+	private String work_dir;
+	private long seed;
+	private int num_docs;
+
+	public ThroughputHarness(String dir, int docs, long seed) {
+		work_dir = dir;
+		num_docs = docs;
+		this.seed = seed;
+	}
+
+	private SyntheticCorpus corpus() {
+		SyntheticCorpus c = new SyntheticCorpus(seed);
+		c.setDocLength(Double.parseDouble(System.getProperty("bench.doc.median", "20")),
+				Double.parseDouble(System.getProperty("bench.doc.sigma", "1.0")),
+				Integer.parseInt(System.getProperty("bench.doc.max", "2000")));
+		c.setSentenceLength(Double.parseDouble(System.getProperty("bench.sent.median", "18")),
+				Double.parseDouble(System.getProperty("bench.sent.sigma", "0.5")),
+				Integer.parseInt(System.getProperty("bench.sent.max", "150")));
+		return c;
+	}
+
+	private String path(String name) {
+		return new File(work_dir, name).getPath();
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	/**
+	 * Peak resident set size in KiB from /proc/self/status; -1 where
+	 * that is not available.
+	 */
+	private static long peakRssKb() {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+			String line = reader.readLine();
+			while (line != null) {
+				if (line.startsWith("VmHWM:")) {
+					reader.close();
+					return Long.parseLong(line.substring(6).replace("kB", "").trim());
+				}
+				line = reader.readLine();
+			}
+			reader.close();
+		} catch (IOException e) {
+			// not on Linux
+		}
+		return -1;
+	}
+
+	/**
+	 * Runs one stage over freshly generated input and returns its JSON
+	 * report.
+	 */
+	public String runStage(String stage) throws Exception {
+		SyntheticCorpus c = corpus();
+		String in = path("synthetic." + stage + ".in");
+		String out = path("synthetic." + stage + ".out");
+		if (stage.equals("runner")) {
+			c.writeChunk(in, num_docs);
+		} else if (stage.equals("tagging")) {
+			c.writeEscaped(in, num_docs);
+		} else if (stage.equals("escape")) {
+			c.writeGigaword(in, num_docs);
+		} else if (stage.equals("unescape")) {
+			c.writeSentenceRecords(in, num_docs);
+		} else {
+			throw new IllegalArgumentException("Unknown stage: " + stage);
+		}
+		new File(out).delete();
+
+		System.gc();
+		long gc0 = gcMillis();
+		long t0 = System.nanoTime();
+		if (stage.equals("runner")) {
+			runNER.main(new String[] {in, out});
+		} else if (stage.equals("tagging")) {
+			TextRunner.giga(new String[] {work_dir, new File(in).getName(),
+					work_dir, new File(out).getName()});
+		} else if (stage.equals("escape")) {
+			new Escaper().escape(in, out);
+		} else {
+			new Unescaper(nlp.ConllLayout.WIKI_COLS).unescape(in, out);
+		}
+		double secs = (System.nanoTime() - t0) / 1e9;
+		double gcSecs = (gcMillis() - gc0) / 1e3;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"stage\": \"").append(stage).append('"');
+		sb.append(", \"docs\": ").append(c.numDocs());
+		sb.append(", \"tokens\": ").append(c.numTokens());
+		sb.append(", \"input_bytes\": ").append(new File(in).length());
+		sb.append(", \"output_bytes\": ").append(new File(out).length());
+		sb.append(", \"seconds\": ").append(String.format("%.3f", secs));
+		sb.append(", \"docs_per_sec\": ").append(String.format("%.2f", c.numDocs() / secs));
+		sb.append(", \"tokens_per_sec\": ").append(String.format("%.1f", c.numTokens() / secs));
+		sb.append(", \"gc_seconds\": ").append(String.format("%.3f", gcSecs));
+		sb.append(", \"peak_rss_kb\": ").append(peakRssKb());
+		sb.append("}");
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("args: work_dir runner,tagging,escape,unescape|all [num_docs [seed]]");
+			System.exit(0);
+		}
+		String dir = args[0];
+		new File(dir).mkdirs();
+		List<String> stages = ALL_STAGES;
+		if (!args[1].equals("all")) {
+			stages = Arrays.asList(args[1].split(","));
+		}
+		int docs = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 20121017L;
+
+		ThroughputHarness harness = new ThroughputHarness(dir, docs, seed);
+		List<String> reports = new ArrayList<String>();
+		for (String stage : stages) {
+			System.err.println("Running " + stage + "...");
+			reports.add(harness.runStage(stage));
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"num_docs\": ").append(docs);
+		sb.append(", \"seed\": ").append(seed);
+		sb.append(", \"max_heap_bytes\": ").append(Runtime.getRuntime().maxMemory());
+		sb.append(", \"processors\": ").append(Runtime.getRuntime().availableProcessors());
+		sb.append(", \"stages\": [\n  ");
+		for (int i = 0; i < reports.size(); i++) {
+			if (i > 0) sb.append(",\n  ");
+			sb.append(reports.get(i));
+		}
+		sb.append("\n]}\n");
+		System.out.print(sb);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dir, "throughput.json")));
+		writer.write(sb.toString());
+		writer.close();
+	}
+
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import nlp.UnescaperClue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * CoNLL conversion of one seven-column sentence record, through the
+ * list-returning lineToConll and the buffer-reusing appendConll.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UnescaperBench {
+
+	@Param({"10", "40", "99"})
+	public int numToks;
+
+	private UnescaperClue unesc;
+	private String record;
+	private StringBuilder out = new StringBuilder();
+
+	@Setup
+	public void setup() {
+		unesc = new UnescaperClue();
+		record = Corpus.sentenceRecord(Corpus.random(), "bench-doc", 1, numToks);
+	}
+
+	@Benchmark
+	public ArrayList<String> lineToConll() {
+		return unesc.lineToConll(record);
+	}
+
+	@Benchmark
+	public int appendConll() {
+		out.setLength(0);
+		return unesc.appendConll(record, out);
+	}
+
+}
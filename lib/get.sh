@@ -3,3 +3,10 @@ unzip lib.zip
 
 
 
+
+# JMH, for "ant bench"
+MAVEN=https://repo1.maven.org/maven2
+wget $MAVEN/org/openjdk/jmh/jmh-core/1.21/jmh-core-1.21.jar
+wget $MAVEN/org/openjdk/jmh/jmh-generator-annprocess/1.21/jmh-generator-annprocess-1.21.jar
+wget $MAVEN/net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar
+wget $MAVEN/org/apache/commons/commons-math3/3.2/commons-math3-3.2.jar
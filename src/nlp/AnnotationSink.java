@@ -0,0 +1,46 @@
+package nlp;
+
+import java.io.IOException;
+
+/**
+ * Receives tagged documents one token row at a time, so that the taggers
+ * can emit any of the supported output formats in a single pass.
+ * Calls are nested as document / sentence / token.
+ */
+public abstract class AnnotationSink {
+
+	public void startDocument(String docid) throws IOException {
+
+	}
+
+	public void startSentence(int sentid) throws IOException {
+
+	}
+
+	/**
+	 * Receives the first numCols entries of cols as one token row. The
+	 * array may be reused by the caller once this returns.
+	 */
+	public abstract void token(String[] cols, int numCols) throws IOException;
+
+	/**
+	 * Like token(cols, numCols), where labels[i] &gt;= 0 says that cols[i]
+	 * is the label with that id in LabelTable.GLOBAL, so that sinks can
+	 * write it from its pre-escaped form.
+	 */
+	public void token(String[] cols, int[] labels, int numCols) throws IOException {
+		token(cols, numCols);
+	}
+
+	public void endSentence() throws IOException {
+
+	}
+
+	public void endDocument() throws IOException {
+
+	}
+
+	public void close() throws IOException {
+
+	}
+}
@@ -0,0 +1,16 @@
+package nlp;
+
+/**
+ * Receives the results of SimpleFunction.processBatch. For each input
+ * record i, in order, its outputs are passed to output() and then its
+ * status to status().
+ */
+public abstract class BatchSink {
+
+	public abstract void output(int i, String record);
+
+	public void status(int i, Status status) {
+
+	}
+
+}
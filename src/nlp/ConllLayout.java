@@ -0,0 +1,84 @@
+package nlp;
+
+/**
+ * Describes how the tab-separated token lines of a tagged sentence
+ * record are turned into CoNLL lines. Every output line ends with a
+ * column of the form docid:sentid, optionally followed by ":"-joined
+ * values of extra token columns.
+ */
+public class ConllLayout {
+
+	/** Eight-column Gigaword records, copied verbatim. */
+	public static final ConllLayout ALL_COLS = new ConllLayout(8, null, null, new int[0]);
+
+	/** Ten-column runNER rows, copied verbatim. */
+	public static final ConllLayout OWPL_COLS = new ConllLayout(10, null, null, new int[0]);
+
+	/** Eight-column Gigaword records, reduced to id/word/lemma/pos/pos. */
+	public static final ConllLayout GIGA_COLS = new ConllLayout(8,
+			new int[] {0, 1, 2, 3, 3}, new int[] {1, 2}, new int[0]);
+
+	/** Seven-column records written by SimpleTagging with extra columns (ClueWeb, wiki). */
+	public static final ConllLayout WIKI_COLS = new ConllLayout(7,
+			new int[] {0, 1, 2, 3, 3}, new int[] {1, 2}, new int[] {4, 5, 6});
+
+	private int numCols;
+	private int[] outCols;
+	private boolean[] sanitized;
+	private int[] tagCols;
+
+	/**
+	 * @param numCols number of columns a token line must have
+	 * @param outCols columns to output, in order; null copies the whole line
+	 * @param sanitizedCols columns in which spaces are replaced by underscores
+	 * @param tagCols columns appended to the docid:sentid column
+	 */
+	public ConllLayout(int numCols, int[] outCols, int[] sanitizedCols, int[] tagCols) {
+		this.numCols = numCols;
+		this.outCols = outCols;
+		this.tagCols = tagCols;
+		sanitized = new boolean[numCols];
+		if (sanitizedCols != null) {
+			for (int c : sanitizedCols) sanitized[c] = true;
+		}
+	}
+
+	public int numCols() {
+		return numCols;
+	}
+
+	/**
+	 * Appends one CoNLL line (without the trailing newline) for the token
+	 * line in src whose columns are delimited by colStart: column i spans
+	 * [colStart[i], colStart[i+1] - 1).
+	 */
+	public void appendLine(CharSequence src, int[] colStart, CharSequence docid,
+			CharSequence sentid, StringBuilder out) {
+		if (outCols == null) {
+			out.append(src, colStart[0], colStart[numCols] - 1);
+		} else {
+			for (int i = 0; i < outCols.length; i++) {
+				if (i > 0) out.append('\t');
+				appendCol(src, colStart, outCols[i], out);
+			}
+		}
+		out.append('\t').append(docid).append(':').append(sentid);
+		for (int c : tagCols) {
+			out.append(':');
+			appendCol(src, colStart, c, out);
+		}
+	}
+
+	private void appendCol(CharSequence src, int[] colStart, int col, StringBuilder out) {
+		int end = colStart[col + 1] - 1;
+		if (!sanitized[col]) {
+			out.append(src, colStart[col], end);
+			return;
+		}
+		for (int i = colStart[col]; i < end; i++) {
+			char ch = src.charAt(i);
+			out.append(ch == ' ' ? '_' : ch);
+		}
+	}
+
+}
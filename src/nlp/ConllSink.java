@@ -0,0 +1,63 @@
+package nlp;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes CoNLL directly from the tagger, the same output Unescaper produces
+ * from escaped records but without a second pass and without dropping long
+ * sentences.
+ */
+public class ConllSink extends AnnotationSink {
+
+	private Writer os = null;
+	private ConllLayout layout = null;
+	private String docid = null;
+	private String sentid = null;
+	private boolean empty = true;
+	private StringBuilder row = new StringBuilder();
+	private StringBuilder out = new StringBuilder();
+	private int[] colStart = null;
+
+	public ConllSink(Writer writer, ConllLayout layout) {
+		os = writer;
+		this.layout = layout;
+		colStart = new int[layout.numCols() + 1];
+	}
+
+	public void startDocument(String docid) {
+		this.docid = docid;
+	}
+
+	public void startSentence(int sentid) {
+		this.sentid = Integer.toString(sentid);
+		empty = true;
+	}
+
+	public void token(String[] cols, int numCols) throws IOException {
+		if (numCols != layout.numCols()) {
+			System.err.println("SHOULD BE " + layout.numCols() + " COLUMNS, GOT " + numCols);
+			return;
+		}
+		row.setLength(0);
+		for (int i = 0; i < numCols; i++) {
+			colStart[i] = row.length();
+			row.append(cols[i]).append('\t');
+		}
+		colStart[numCols] = row.length();
+		out.setLength(0);
+		layout.appendLine(row, colStart, docid, sentid, out);
+		out.append('\n');
+		os.append(out);
+		empty = false;
+	}
+
+	public void endSentence() throws IOException {
+		if (!empty) os.write('\n');
+	}
+
+	public void close() throws IOException {
+		os.close();
+	}
+
+}
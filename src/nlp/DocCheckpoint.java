@@ -0,0 +1,111 @@
+package nlp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Remembers how far runNER got, as the input offset after the last
+ * complete document and the output length at that point, in a file
+ * next to the output (OUTPUT.ckpt). The line has the in:NAME:OFFSET /
+ * out:NAME:LENGTH specs of TextRunner's log file.
+ */
+public class DocCheckpoint {
+
+	private File file = null;
+	private File outFile = null;
+	private File tmp = null;
+	private String inName = null;
+	private String outName = null;
+
+	private long inOffset = 0;
+	private long outLength = 0;
+
+	public DocCheckpoint(String input, String output) {
+		outFile = new File(output);
+		file = new File(output + ".ckpt");
+		tmp = new File(output + ".ckpt.tmp");
+		inName = new File(input).getName();
+		outName = new File(output).getName();
+	}
+
+	/**
+	 * Reads the checkpoint and truncates the output to the last complete
+	 * document. Returns false (and starts over) if there is no usable
+	 * checkpoint for this input and output.
+	 */
+	public boolean recover() {
+		inOffset = 0;
+		outLength = 0;
+		if (!file.exists()) return false;
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			String line = reader.readLine();
+			reader.close();
+			if (line == null) return false;
+			String in = null;
+			String out = null;
+			for (String spec : line.split("\t")) {
+				if (spec.startsWith("in:")) in = spec;
+				if (spec.startsWith("out:")) out = spec;
+			}
+			if (in == null || out == null) return false;
+			if (!in.startsWith("in:" + inName + ":") || !out.startsWith("out:" + outName + ":")) {
+				System.err.println("Checkpoint is for another run, starting over");
+				return false;
+			}
+			long inOff = Long.parseLong(in.substring(in.lastIndexOf(':') + 1));
+			long outLen = Long.parseLong(out.substring(out.lastIndexOf(':') + 1));
+			if (!outFile.exists() || outFile.length() < outLen) return false;
+			RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+			raf.setLength(outLen);
+			raf.close();
+			inOffset = inOff;
+			outLength = outLen;
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} catch (NumberFormatException e) {
+			System.err.println("Bad checkpoint file!!!!");
+			return false;
+		}
+	}
+
+	/**
+	 * Input offset to resume at, after recover().
+	 */
+	public long inputOffset() {
+		return inOffset;
+	}
+
+	public long outputLength() {
+		return outLength;
+	}
+
+	/**
+	 * Records a complete document; the output must have been flushed up
+	 * to outLength. The file is replaced by a rename, so a kill leaves
+	 * either the old or the new checkpoint.
+	 */
+	public void commit(long inOffset, long outLength) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+		writer.write("in:" + inName + ":" + inOffset + "\tout:" + outName + ":" + outLength);
+		writer.close();
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			tmp.renameTo(file);
+		}
+		this.inOffset = inOffset;
+		this.outLength = outLength;
+	}
+
+	public void remove() {
+		file.delete();
+		tmp.delete();
+	}
+}
@@ -0,0 +1,116 @@
+package nlp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts an oversized document into pieces of at most maxChars chars that
+ * can be annotated on their own. Cuts go at a paragraph break if there
+ * is one in the second half of the piece, else at a sentence end, else
+ * at a space, and never inside a markup tag. Each piece remembers where
+ * it starts, so that token offsets can be mapped back to the document.
+ */
+public class DocumentSplitter {
+
+	/**
+	 * A part of a document, starting at char begin of it.
+	 */
+	public static class Piece {
+		public final int begin;
+		public final String text;
+
+		public Piece(int begin, String text) {
+			this.begin = begin;
+			this.text = text;
+		}
+	}
+
+	private int maxChars;
+
+	/**
+	 * @param maxChars longest piece; 0 or less never splits
+	 */
+	public DocumentSplitter(int maxChars) {
+		this.maxChars = maxChars;
+	}
+
+	public boolean enabled() {
+		return maxChars > 0;
+	}
+
+	/**
+	 * Splits doc into consecutive pieces that together cover all of it;
+	 * a document that is short enough is returned as one piece.
+	 */
+	public List<Piece> split(String doc) {
+		List<Piece> pieces = new ArrayList<Piece>();
+		int begin = 0;
+		while (enabled() && doc.length() - begin > maxChars) {
+			int end = findCut(doc, begin, begin + maxChars);
+			pieces.add(new Piece(begin, doc.substring(begin, end)));
+			begin = end;
+		}
+		pieces.add(new Piece(begin, doc.substring(begin)));
+		return pieces;
+	}
+
+	/**
+	 * Length of the longest piece split() would return.
+	 */
+	public int longestPiece(String doc) {
+		if (!enabled() || doc.length() <= maxChars) return doc.length();
+		int longest = 0;
+		for (Piece p : split(doc)) {
+			longest = Math.max(longest, p.text.length());
+		}
+		return longest;
+	}
+
+	/**
+	 * Finds where to end the piece that starts at begin, no later than
+	 * limit.
+	 */
+	private static int findCut(String doc, int begin, int limit) {
+		// inTag[i - begin]: char i is between a '<' and its '>'; a piece
+		// never starts inside a tag
+		boolean[] inTag = new boolean[limit - begin];
+		boolean open = false;
+		for (int i = begin; i < limit; i++) {
+			char c = doc.charAt(i);
+			if (c == '<') open = true;
+			inTag[i - begin] = open;
+			if (c == '>') open = false;
+		}
+		int half = begin + (limit - begin) / 2;
+		int cut = lastBoundary(doc, begin, inTag, half, limit, true);
+		if (cut < 0) cut = lastBoundary(doc, begin, inTag, half, limit, false);
+		if (cut < 0) cut = lastSpace(doc, begin, inTag, begin + 1, limit);
+		if (cut < 0) cut = limit;
+		return cut;
+	}
+
+	/**
+	 * Last paragraph break (a blank line) or sentence end in
+	 * [from, limit) that is not inside a tag, as the index right after
+	 * it, or -1.
+	 */
+	private static int lastBoundary(String doc, int begin, boolean[] inTag,
+			int from, int limit, boolean paragraph) {
+		for (int i = limit - 1; i > from; i--) {
+			char c = doc.charAt(i);
+			if (!Character.isWhitespace(c) || inTag[i - begin]) continue;
+			char prev = doc.charAt(i - 1);
+			boolean found = paragraph ? (c == '\n' && prev == '\n')
+					: (prev == '.' || prev == '!' || prev == '?' || c == '\n');
+			if (found) return i + 1;
+		}
+		return -1;
+	}
+
+	private static int lastSpace(String doc, int begin, boolean[] inTag, int from, int limit) {
+		for (int i = limit - 1; i >= from; i--) {
+			if (Character.isWhitespace(doc.charAt(i)) && !inTag[i - begin]) return i + 1;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,55 @@
+package nlp;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes one escaped &lt;SENT docid=.. sentid=..&gt; record per line, the
+ * format TextRunner produces from SimpleTagging. Subclasses may override
+ * emit() to collect the plain records instead.
+ */
+public class EscapedRecordSink extends AnnotationSink {
+
+	private Writer os = null;
+	private String docid = null;
+	private StringBuilder sb = new StringBuilder();
+
+	public EscapedRecordSink(Writer writer) {
+		os = writer;
+	}
+
+	public void startDocument(String docid) {
+		this.docid = docid;
+	}
+
+	public void startSentence(int sentid) {
+		sb.setLength(0);
+		sb.append("<SENT docid=\"").append(docid).append("\" sentid=\"").append(sentid).append("\">\n");
+	}
+
+	public void token(String[] cols, int numCols) {
+		for (int i = 0; i < numCols; i++) {
+			if (i > 0) sb.append('\t');
+			sb.append(cols[i]);
+		}
+		sb.append('\n');
+	}
+
+	public void endSentence() throws IOException {
+		sb.append("</SENT>");
+		emit(sb.toString());
+	}
+
+	/**
+	 * Handles one complete, unescaped sentence record.
+	 */
+	protected void emit(String record) throws IOException {
+		os.write(TextRunner.encode(record));
+		os.write('\n');
+	}
+
+	public void close() throws IOException {
+		if (os != null) os.close();
+	}
+
+}
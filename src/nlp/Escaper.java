@@ -3,42 +3,51 @@ package nlp;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import util.IO;
 import util.Timer;
 
+/**
+ * Turns Gigaword SGML files into one escaped &lt;DOC&gt; per line, the
+ * input format of TextRunner. Output is gzipped by default, since the
+ * plain escaped text is several times larger and disk bound.
+ */
 public class Escaper {
 
+	private boolean compress_output = true;
+	private int num_workers = Runtime.getRuntime().availableProcessors();
+
+	public void setCompressOutput(boolean val) {
+		compress_output = val;
+	}
+
+	public void setNumWorkers(int n) {
+		num_workers = n;
+	}
+
 	public void escape(String fin, String fout) {
 		try {
-	    BufferedReader is = null;
-	    if (!fin.endsWith(".gz")) {
-	    	is = new BufferedReader(new FileReader(fin));
-	    } else {
-		    FileInputStream fis = new FileInputStream(fin);
-		    GZIPInputStream gzis = new GZIPInputStream(fis);
-		    InputStreamReader xover = new InputStreamReader(gzis);
-		    is = new BufferedReader(xover);
-	    }
+	    BufferedReader is = IO.openReader(fin);
+		BufferedWriter os = IO.openWriter(fout);
 
-		BufferedWriter os = new BufferedWriter(new FileWriter(fout));
-	    
 	    String line = is.readLine();
-	    StringBuffer sb = new StringBuffer();
+	    // Escaped text of the current document, reused across documents
+	    StringBuilder sb = new StringBuilder();
 	    while (line != null) {
 	    	if (line.startsWith("<DOC id=")) {
-	    		sb = new StringBuffer();
-	    		sb.append(line + "\n");
+	    		sb.setLength(0);
+	    		TextRunner.encode(line, sb);
+	    		sb.append("\\n");
 	    	} else if (line.startsWith("</DOC>")) {
-	    		sb.append(line);
-	    		String esc = escapeDoc(sb.toString());
-	    		os.write(esc + "\n");
+	    		TextRunner.encode(line, sb);
+	    		sb.append('\n');
+	    		os.append(sb);
 	    	} else {
-	    		sb.append(line + "\n");
+	    		TextRunner.encode(line, sb);
+	    		sb.append("\\n");
 	    	}
 	    	line = is.readLine();
 	    }
@@ -48,11 +57,14 @@ public class Escaper {
 			e.printStackTrace();
 		}
 	}
-	
+
 	public String escapeDoc(String doc) {
 		return TextRunner.encode(doc);
 	}
-	
+
+	/**
+	 * Escapes every file in din into dout, num_workers files at a time.
+	 */
 	public void escapeDir(String din, String dout) {
 		File dir = new File(din);
 		String[] kids = dir.list();
@@ -62,22 +74,44 @@ public class Escaper {
 		}else{
 			Timer.start("escape");
 			System.out.println("Processing dir: " + din);
+			ExecutorService pool = Executors.newFixedThreadPool(num_workers);
 			for (String f : kids) {
-				String path = din + "/" + f;
-				System.out.println(path);
-				String pout = dout + "/" + (f.split("\\."))[0] + ".txt";
-				escape(path, pout);
+				final String path = din + "/" + f;
+				final String pout = dout + "/" + (f.split("\\."))[0] +
+						(compress_output ? ".txt.gz" : ".txt");
+				pool.execute(new Runnable() {
+					public void run() {
+						System.out.println(path);
+						long t0 = Timer.now();
+						escape(path, pout);
+						Timer.recordSince("file", t0);
+					}
+				});
+			}
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
 		    System.out.println("done.");
+			Timer.printStats();
 			Timer.printElapsed("escape");
 		}
-		
+
 	}
-	
+
 	public static void main(String[] args) {
 		String din = "/scratch.1/mr/English_gigaword_4th_ed/disk_2/data/xin_eng";
 		String dout = "/scratch.1/mr/GigawordEscaped";
+		if (args.length >= 2) {
+			din = args[0];
+			dout = args[1];
+		}
 		Escaper esc = new Escaper();
+		if (args.length > 2) {
+			esc.setNumWorkers(Integer.parseInt(args[2]));
+		}
 		esc.escapeDir(din, dout);
 	}
 
@@ -0,0 +1,78 @@
+package nlp;
+
+import java.io.IOException;
+
+/**
+ * Hands out the input files of a corpus to TextRunner workers. A worker
+ * claims a file, renews its lease while processing it, and completes it
+ * when done; a file whose lease is released or expires (worker died) is
+ * claimed again by another worker, which picks up from the checkpoint.
+ * A file that fails max_attempts times is set aside as failed.
+ */
+public abstract class FileLeaseStore {
+
+	protected long lease_millis = 10 * 60 * 1000;
+	protected int max_attempts = 3;
+
+	public void setLeaseMillis(long ms) {
+		lease_millis = ms;
+	}
+
+	public long getLeaseMillis() {
+		return lease_millis;
+	}
+
+	public void setMaxAttempts(int n) {
+		max_attempts = n;
+	}
+
+	public int getMaxAttempts() {
+		return max_attempts;
+	}
+
+	/**
+	 * Adds a file to process; files already added, done or failed are
+	 * ignored.
+	 */
+	public abstract void add(String name) throws IOException;
+
+	/**
+	 * Leases a file that is neither done nor leased, or returns null if
+	 * there is none.
+	 */
+	public abstract String claim(String worker) throws IOException;
+
+	/**
+	 * Extends the lease; returns false if the worker no longer holds it.
+	 */
+	public abstract boolean renew(String name, String worker) throws IOException;
+
+	/**
+	 * Marks the file done and drops the lease.
+	 */
+	public abstract void complete(String name, String worker) throws IOException;
+
+	/**
+	 * Gives the file back without completing it.
+	 */
+	public abstract void release(String name, String worker) throws IOException;
+
+	/**
+	 * Gives the file back after a failed attempt, or sets it aside as
+	 * failed if this was attempt max_attempts; returns true in that case.
+	 */
+	public abstract boolean fail(String name, String worker) throws IOException;
+
+	/** Number of files neither done nor failed, leased or not. */
+	public abstract int numPending() throws IOException;
+
+	/** Number of files under a live lease. */
+	public abstract int numLeased() throws IOException;
+
+	/** Number of files done. */
+	public abstract int numDone() throws IOException;
+
+	/** Number of files given up after max_attempts failures. */
+	public abstract int numFailed() throws IOException;
+
+}
@@ -0,0 +1,109 @@
+package nlp;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Maps the labels of a small closed vocabulary (POS tags, NER classes,
+ * dependency relations) to dense ints, so that tokens can store them in
+ * int arrays. Ids are never reused, so a table can be kept across
+ * documents; GLOBAL is the one shared by the taggers and the sinks.
+ *
+ * Lookups are lock-free: the maps are copied on insert, which only
+ * happens the first time a label is seen. Each label also keeps its
+ * XML-escaped chars, so sinks can write it without escaping per token.
+ */
+public class LabelTable {
+
+	/** The process-wide table; label ids passed to sinks refer to it. */
+	public static final LabelTable GLOBAL = new LabelTable();
+
+	private volatile Object2IntOpenHashMap<String> ids = newMap();
+	// Label objects other than Strings, e.g. GrammaticalRelation, by identity
+	private volatile Reference2IntOpenHashMap<Object> keys = newKeyMap();
+	private volatile String[] names = new String[0];
+	private volatile char[][] xml = new char[0][];
+
+	private static Object2IntOpenHashMap<String> newMap() {
+		Object2IntOpenHashMap<String> m = new Object2IntOpenHashMap<String>();
+		m.defaultReturnValue(-1);
+		return m;
+	}
+
+	private static Reference2IntOpenHashMap<Object> newKeyMap() {
+		Reference2IntOpenHashMap<Object> m = new Reference2IntOpenHashMap<Object>();
+		m.defaultReturnValue(-1);
+		return m;
+	}
+
+	/**
+	 * Id of the label, adding it if it is new; null maps to -1.
+	 */
+	public int id(String label) {
+		if (label == null) return -1;
+		int id = ids.getInt(label);
+		return id >= 0 ? id : add(label);
+	}
+
+	/**
+	 * Id of the label whose name is key.toString(), looking key up by
+	 * identity first so that no name is built once the key was seen.
+	 * Meant for canonical objects such as GrammaticalRelation.
+	 */
+	public int idOf(Object key) {
+		if (key == null) return -1;
+		int id = keys.getInt(key);
+		if (id >= 0) return id;
+		id = id(key.toString());
+		synchronized (this) {
+			Reference2IntOpenHashMap<Object> m = new Reference2IntOpenHashMap<Object>(keys);
+			m.defaultReturnValue(-1);
+			m.put(key, id);
+			keys = m;
+		}
+		return id;
+	}
+
+	private synchronized int add(String label) {
+		int id = ids.getInt(label);
+		if (id >= 0) return id;
+		id = names.length;
+		String[] n = Arrays.copyOf(names, id + 1);
+		n[id] = label;
+		char[][] x = Arrays.copyOf(xml, id + 1);
+		x[id] = escapeXml(label).toCharArray();
+		Object2IntOpenHashMap<String> m = new Object2IntOpenHashMap<String>(ids);
+		m.defaultReturnValue(-1);
+		m.put(label, id);
+		// Publish the arrays before the id can be looked up
+		names = n;
+		xml = x;
+		ids = m;
+		return id;
+	}
+
+	/**
+	 * The label with the given id; -1 maps to null.
+	 */
+	public String name(int id) {
+		return id < 0 ? null : names[id];
+	}
+
+	/**
+	 * The label with &amp;, &lt; and &gt; escaped, as OwplXmlSink writes
+	 * it. Must not be modified.
+	 */
+	public char[] xmlChars(int id) {
+		return xml[id];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	static String escapeXml(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
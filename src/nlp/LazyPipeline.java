@@ -0,0 +1,160 @@
+package nlp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+/**
+ * The pipeline of StanfordCoreNLP(props), except that the annotators
+ * named in -Dlazy.annotators (default "pos, ner, parse, dcoref") load
+ * their models when the first document with tokens reaches them, rather
+ * than up front. A job whose documents never get that far, e.g. a chunk
+ * of empty or rejected records, never pays for those models. The load
+ * time of every annotator is reported on stderr.
+ *
+ * Each annotator is built through a one-annotator StanfordCoreNLP on a
+ * fresh annotator pool. A shared pipeline (the default) takes its
+ * annotators from a JVM-wide cache keyed by annotator name and
+ * properties, so a worker that makes a new pipeline per file loads each
+ * model once; an unshared one, e.g. for an extra tagging thread, gets
+ * annotators of its own.
+ */
+public class LazyPipeline extends AnnotationPipeline {
+
+	public static final String DEFAULT_LAZY = "pos, ner, parse, dcoref";
+
+	// Annotators of shared pipelines, by annotatorKey()
+	private static final HashMap<String, Annotator> sharedAnnotators = new HashMap<String, Annotator>();
+
+	/**
+	 * Stands in for an annotator until a document needs it.
+	 */
+	private static class LazyAnnotator implements Annotator {
+		private String name;
+		private Properties props;
+		private boolean shared;
+		private Annotator annotator = null;
+
+		LazyAnnotator(String name, Properties props, boolean shared) {
+			this.name = name;
+			this.props = props;
+			this.shared = shared;
+		}
+
+		public void annotate(Annotation document) {
+			if (annotator == null) {
+				List<CoreLabel> tokens = document.get(TokensAnnotation.class);
+				// Nothing to annotate
+				if (tokens == null || tokens.isEmpty()) return;
+				annotator = get(name, props, shared);
+				props = null;
+			}
+			annotator.annotate(document);
+		}
+	}
+
+	public LazyPipeline(Properties props) {
+		this(props, true);
+	}
+
+	/**
+	 * @param shared whether to use the JVM-wide annotators, or build
+	 * new ones for this pipeline
+	 */
+	public LazyPipeline(Properties props, boolean shared) {
+		Set<String> lazy = lazyAnnotators();
+		for (String name : props.getProperty("annotators", "").split(",")) {
+			name = name.trim();
+			if (name.length() == 0) continue;
+			if (lazy.contains(name)) {
+				addAnnotator(new LazyAnnotator(name, props, shared));
+			} else {
+				addAnnotator(get(name, props, shared));
+			}
+		}
+	}
+
+	/**
+	 * The annotators to load on first use, from -Dlazy.annotators.
+	 */
+	public static Set<String> lazyAnnotators() {
+		Set<String> names = new HashSet<String>();
+		for (String name : System.getProperty("lazy.annotators", DEFAULT_LAZY).split(",")) {
+			if (name.trim().length() > 0) names.add(name.trim());
+		}
+		return names;
+	}
+
+	/**
+	 * The shared instance of the named annotator, built on first use, or
+	 * a new one if not shared.
+	 */
+	static Annotator get(String name, Properties props, boolean shared) {
+		if (!shared) return load(name, props);
+		String key = annotatorKey(name, props);
+		synchronized (sharedAnnotators) {
+			Annotator annotator = sharedAnnotators.get(key);
+			if (annotator == null) {
+				annotator = load(name, props);
+				sharedAnnotators.put(key, annotator);
+			}
+			return annotator;
+		}
+	}
+
+	/**
+	 * Drops the shared annotators, e.g. when they may be in a bad state
+	 * after an OutOfMemoryError; later pipelines build new ones.
+	 */
+	public static void clearShared() {
+		synchronized (sharedAnnotators) {
+			sharedAnnotators.clear();
+		}
+	}
+
+	/**
+	 * The annotator name and all properties, in key order; the
+	 * properties an annotator reads are not known from outside.
+	 */
+	private static String annotatorKey(String name, Properties props) {
+		StringBuilder sb = new StringBuilder(name);
+		for (String key : new TreeSet<String>(props.stringPropertyNames())) {
+			if (key.equals("annotators")) continue;
+			sb.append('\n').append(key).append('=').append(props.getProperty(key));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Builds the named annotator on the given properties.
+	 */
+	static Annotator load(String name, Properties props) {
+		long t0 = System.nanoTime();
+		Properties p = new Properties();
+		p.putAll(props);
+		p.setProperty("annotators", name);
+		Annotator annotator;
+		synchronized (StanfordCoreNLP.class) {
+			// A fresh pool registers factories on these properties and
+			// builds a new instance, as SimpleTagging needs per thread
+			StanfordCoreNLP.clearAnnotatorPool();
+			// The stages before it are in this pipeline, not in p
+			new StanfordCoreNLP(p, false);
+			annotator = StanfordCoreNLP.getExistingAnnotator(name);
+			StanfordCoreNLP.clearAnnotatorPool();
+		}
+		System.err.println(String.format("Loaded %s in %.2f sec", name, (System.nanoTime() - t0) / 1e9));
+		return annotator;
+	}
+
+}
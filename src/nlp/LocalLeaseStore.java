@@ -0,0 +1,185 @@
+package nlp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * FileLeaseStore kept in a directory, for a single machine or a shared
+ * file system:
+ *
+ *   todo/NAME    files not done yet: holds the number of failed attempts
+ *   lease/NAME   current lease: holds the worker id, renewed by touching it
+ *   done/NAME    files done
+ *   failed/NAME  files given up after max_attempts failures; delete it
+ *                and add the file again to retry
+ *
+ * A lease expires lease_millis after the last touch. Takeovers of an
+ * expired lease are serialized by a lock file, lease/.NAME.takeover,
+ * made with createNewFile(). Under the lock a worker checks that the
+ * lease still has the owner and time it saw expire, so a lease renewed
+ * in the meantime is left alone, and only then deletes it and creates
+ * a new one, as for a fresh claim.
+ */
+public class LocalLeaseStore extends FileLeaseStore {
+
+	private File todoDir = null;
+	private File leaseDir = null;
+	private File doneDir = null;
+	private File failedDir = null;
+
+	public LocalLeaseStore(File dir) {
+		todoDir = new File(dir, "todo");
+		leaseDir = new File(dir, "lease");
+		doneDir = new File(dir, "done");
+		failedDir = new File(dir, "failed");
+		todoDir.mkdirs();
+		leaseDir.mkdirs();
+		doneDir.mkdirs();
+		failedDir.mkdirs();
+	}
+
+	public void add(String name) throws IOException {
+		if (!new File(doneDir, name).exists() && !new File(failedDir, name).exists()) {
+			new File(todoDir, name).createNewFile();
+		}
+	}
+
+	public String claim(String worker) throws IOException {
+		String[] names = todoDir.list();
+		if (names == null) return null;
+		Arrays.sort(names);
+		long now = System.currentTimeMillis();
+		for (String name : names) {
+			File lease = new File(leaseDir, name);
+			if (lease.createNewFile()) {
+				writeLine(lease, worker);
+				return name;
+			}
+			if (expired(lease, now) && takeOver(name, worker)) {
+				System.err.println("Lease of " + name + " expired, taking over");
+				return name;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces an expired lease by one of our own, unless it is renewed
+	 * or taken over by another worker first.
+	 */
+	private boolean takeOver(String name, String worker) throws IOException {
+		File lease = new File(leaseDir, name);
+		String owner = readLine(lease);
+		long touched = lease.lastModified();
+		if (touched == 0 || System.currentTimeMillis() - touched <= lease_millis) return false;
+
+		File lock = new File(leaseDir, "." + name + ".takeover");
+		if (!lock.createNewFile()) {
+			// Left by a worker that died during a takeover
+			if (!expired(lock, System.currentTimeMillis())) return false;
+			lock.delete();
+			if (!lock.createNewFile()) return false;
+		}
+		try {
+			// Renewed, or taken over and released, since we read it
+			String current = readLine(lease);
+			if (lease.lastModified() != touched
+					|| (owner == null ? current != null : !owner.equals(current))) return false;
+			lease.delete();
+			if (!lease.createNewFile()) return false;
+			writeLine(lease, worker);
+			return true;
+		} finally {
+			lock.delete();
+		}
+	}
+
+	public boolean renew(String name, String worker) throws IOException {
+		File lease = new File(leaseDir, name);
+		if (!worker.equals(readLine(lease))) return false;
+		return lease.setLastModified(System.currentTimeMillis());
+	}
+
+	public void complete(String name, String worker) throws IOException {
+		new File(doneDir, name).createNewFile();
+		new File(todoDir, name).delete();
+		release(name, worker);
+	}
+
+	public void release(String name, String worker) throws IOException {
+		File lease = new File(leaseDir, name);
+		if (worker.equals(readLine(lease))) {
+			lease.delete();
+		}
+	}
+
+	public boolean fail(String name, String worker) throws IOException {
+		if (!worker.equals(readLine(new File(leaseDir, name)))) return false;
+		File todo = new File(todoDir, name);
+		String line = readLine(todo);
+		int attempts = (line == null || line.length() == 0 ? 0 : Integer.parseInt(line.trim())) + 1;
+		if (attempts < max_attempts) {
+			writeLine(todo, Integer.toString(attempts));
+			release(name, worker);
+			return false;
+		}
+		new File(failedDir, name).createNewFile();
+		todo.delete();
+		release(name, worker);
+		return true;
+	}
+
+	public int numPending() throws IOException {
+		String[] names = todoDir.list();
+		return names == null ? 0 : names.length;
+	}
+
+	public int numLeased() throws IOException {
+		String[] names = leaseDir.list();
+		if (names == null) return 0;
+		long now = System.currentTimeMillis();
+		int n = 0;
+		for (String name : names) {
+			if (!name.startsWith(".") && !expired(new File(leaseDir, name), now)) ++n;
+		}
+		return n;
+	}
+
+	public int numDone() throws IOException {
+		String[] names = doneDir.list();
+		return names == null ? 0 : names.length;
+	}
+
+	public int numFailed() throws IOException {
+		String[] names = failedDir.list();
+		return names == null ? 0 : names.length;
+	}
+
+	private boolean expired(File file, long now) {
+		long touched = file.lastModified();
+		return touched > 0 && now - touched > lease_millis;
+	}
+
+	private static void writeLine(File file, String line) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write(line);
+		writer.close();
+	}
+
+	private static String readLine(File file) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			String line = reader.readLine();
+			reader.close();
+			return line;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package nlp;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import util.IO;
+
+import edu.stanford.nlp.pipeline.DefaultPaths;
+
+/**
+ * Keeps decompressed copies of the POS, NER and parser models in a local
+ * directory (-Dmodel.cache), and points the pipeline properties at them,
+ * so that later starts read plain files instead of inflating the jar
+ * entry and then the .gz inside it. CoreNLP only gunzips model files
+ * whose name ends in ".gz", so the copies are stored without it.
+ *
+ * Copies live under a subdirectory named after the CRC32 of the jar (or
+ * file) the model came from, so a new models jar gets fresh copies.
+ * They are written to a temporary file and renamed, so concurrent jobs
+ * sharing the directory never see a partial model.
+ */
+public class ModelCache {
+
+	private static final String DEFAULT_NER_MODELS = DefaultPaths.DEFAULT_NER_THREECLASS_MODEL + ","
+			+ DefaultPaths.DEFAULT_NER_MUC_MODEL + "," + DefaultPaths.DEFAULT_NER_CONLL_MODEL;
+
+	// Checksums of model sources already computed by this JVM
+	private static HashMap<File, String> checksums = new HashMap<File, String>();
+
+	private File dir = null;
+
+	public ModelCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Rewrites the model properties of the configured annotators to
+	 * cached copies if -Dmodel.cache is set; otherwise does nothing.
+	 */
+	public static void apply(Properties props) {
+		String dir = System.getProperty("model.cache");
+		if (dir == null || dir.length() == 0) return;
+		new ModelCache(new File(dir)).rewrite(props);
+	}
+
+	public void rewrite(Properties props) {
+		Set<String> annotators = new HashSet<String>();
+		for (String a : props.getProperty("annotators", "").split(",")) {
+			annotators.add(a.trim());
+		}
+		long t0 = System.nanoTime();
+		if (annotators.contains("pos")) {
+			rewrite(props, "pos.model", DefaultPaths.DEFAULT_POS_MODEL);
+		}
+		if (annotators.contains("ner")) {
+			rewrite(props, "ner.model", DEFAULT_NER_MODELS);
+		}
+		if (annotators.contains("parse")) {
+			rewrite(props, "parse.model", DefaultPaths.DEFAULT_PARSER_MODEL);
+		}
+		System.err.println(String.format("Model cache %s ready in %.2f sec", dir,
+				(System.nanoTime() - t0) / 1e9));
+	}
+
+	/**
+	 * Replaces each model of a comma separated property by its cached
+	 * copy; a model that cannot be cached is left as it was.
+	 */
+	private void rewrite(Properties props, String key, String defaultValue) {
+		String value = props.getProperty(key, defaultValue);
+		StringBuilder sb = new StringBuilder();
+		for (String model : value.split(",")) {
+			model = model.trim();
+			if (model.length() == 0) continue;
+			String path = model;
+			try {
+				path = cached(model).getPath();
+			} catch (IOException e) {
+				System.err.println("Not caching model " + model + ": " + e);
+			}
+			if (sb.length() > 0) sb.append(',');
+			sb.append(path);
+		}
+		props.setProperty(key, sb.toString());
+	}
+
+	/**
+	 * The cached copy of a model given as a file or class path resource,
+	 * creating it if needed.
+	 */
+	public File cached(String model) throws IOException {
+		File source;
+		String name;
+		URLConnection conn = null;
+		File file = new File(model);
+		if (file.isFile() && file.getAbsolutePath().startsWith(dir.getAbsolutePath() + File.separator)) {
+			// Already a cached copy
+			return file;
+		}
+		if (file.isFile()) {
+			source = file;
+			name = file.getName();
+		} else {
+			URL url = ModelCache.class.getClassLoader().getResource(model);
+			if (url == null) throw new IOException("not found");
+			conn = url.openConnection();
+			if (conn instanceof JarURLConnection) {
+				source = new File(URLDecoder.decode(((JarURLConnection) conn).getJarFileURL().getPath(), IO.UTF8));
+			} else {
+				source = new File(URLDecoder.decode(url.getPath(), IO.UTF8));
+			}
+			name = model;
+		}
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		File target = new File(new File(dir, checksum(source)), name);
+		if (target.isFile()) return target;
+
+		long t0 = System.nanoTime();
+		target.getParentFile().mkdirs();
+		File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		InputStream in = conn != null ? conn.getInputStream() : new FileInputStream(file);
+		try {
+			if (model.endsWith(".gz")) {
+				in = new GZIPInputStream(in, IO.BUFFER_SIZE);
+			}
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), IO.BUFFER_SIZE);
+			try {
+				byte[] buf = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buf)) > 0) {
+					out.write(buf, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		} finally {
+			in.close();
+		}
+		// Another job may have got there first, with the same contents
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			if (!target.isFile()) throw new IOException("cannot create " + target);
+		}
+		System.err.println(String.format("Cached %s in %.2f sec", model, (System.nanoTime() - t0) / 1e9));
+		return target;
+	}
+
+	/**
+	 * Hex CRC32 of the whole file.
+	 */
+	private static synchronized String checksum(File file) throws IOException {
+		String sum = checksums.get(file);
+		if (sum != null) return sum;
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[IO.BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				crc.update(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		sum = String.format("%08x", crc.getValue());
+		checksums.put(file, sum);
+		return sum;
+	}
+
+}
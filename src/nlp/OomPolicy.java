@@ -0,0 +1,14 @@
+package nlp;
+
+/**
+ * What TextRunner does after a record ran out of memory. The record
+ * itself is always quarantined.
+ */
+public enum OomPolicy {
+	/** Go on with the next record. */
+	SKIP,
+	/** Rebuild the function's pipeline, dropping whatever state it holds. */
+	RESTART_PIPELINE,
+	/** Checkpoint and stop, so that a fresh JVM resumes the file. */
+	ABORT
+}
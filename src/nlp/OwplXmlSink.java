@@ -0,0 +1,91 @@
+package nlp;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the OWPL XML format of runNER:
+ * &lt;root&gt;&lt;FILENAME stream_id=..&gt;&lt;SENT id=..&gt; rows &lt;/SENT&gt;..&lt;/FILENAME&gt;..&lt;/root&gt;
+ */
+public class OwplXmlSink extends AnnotationSink {
+
+	private Writer os = null;
+
+	public OwplXmlSink(Writer writer) throws IOException {
+		this(writer, true);
+	}
+
+	/**
+	 * With header=false nothing is written before the first document, for
+	 * appending to a file that was cut after a complete document.
+	 */
+	public OwplXmlSink(Writer writer, boolean header) throws IOException {
+		os = writer;
+		if (header) os.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root>");
+	}
+
+	public void startDocument(String docid) throws IOException {
+		os.write("<FILENAME stream_id=\"" + docid + "\">\n");
+	}
+
+	public void startSentence(int sentid) throws IOException {
+		os.write("<SENT id=\"" + sentid + "\">\n");
+	}
+
+	public void token(String[] cols, int numCols) throws IOException {
+		for (int i = 0; i < numCols; i++) {
+			if (i > 0) os.write('\t');
+			writeEscaped(cols[i]);
+		}
+		os.write('\n');
+	}
+
+	public void token(String[] cols, int[] labels, int numCols) throws IOException {
+		for (int i = 0; i < numCols; i++) {
+			if (i > 0) os.write('\t');
+			if (labels[i] >= 0) {
+				char[] x = LabelTable.GLOBAL.xmlChars(labels[i]);
+				os.write(x, 0, x.length);
+			} else {
+				writeEscaped(cols[i]);
+			}
+		}
+		os.write('\n');
+	}
+
+	public void endSentence() throws IOException {
+		os.write("</SENT>\n");
+	}
+
+	public void endDocument() throws IOException {
+		os.write("</FILENAME>\n");
+	}
+
+	public void close() throws IOException {
+		os.write("</root>");
+		os.close();
+	}
+
+	/**
+	 * Writes s with &amp;, &lt; and &gt; escaped so that the output stays
+	 * valid XML. CoreNLP unescapes these in tokens, lemmas and relation
+	 * names (e.g. conj_&amp;).
+	 */
+	private void writeEscaped(String s) throws IOException {
+		int from = 0;
+		for (int i = 0; i < s.length(); i++) {
+			String rep;
+			switch (s.charAt(i)) {
+			case '&': { rep = "&amp;"; break; }
+			case '<': { rep = "&lt;"; break; }
+			case '>': { rep = "&gt;"; break; }
+			default: continue;
+			}
+			os.write(s, from, i - from);
+			os.write(rep);
+			from = i + 1;
+		}
+		os.write(s, from, s.length() - from);
+	}
+
+}
@@ -20,6 +20,45 @@ public abstract class SimpleFunction {
 	public List<String> process(String inputRecord){
 		return null;
 	}
+
+	/**
+	 * Processes a batch of records, sending the outputs and status of
+	 * each to out in record order. The default calls process() on each
+	 * record; override to share work across the batch or run records in
+	 * parallel.
+	 */
+	public void processBatch(List<String> inputRecords, BatchSink out) {
+		for (int i = 0; i < inputRecords.size(); i++) {
+			List<String> recs = process(inputRecords.get(i));
+			if (recs != null) {
+				for (String rec : recs) {
+					out.output(i, rec);
+				}
+			}
+			out.status(i, toStatus(status));
+		}
+	}
+
+	/**
+	 * Maps the status string set by process() to a Status; unknown or
+	 * unset means OK.
+	 */
+	protected static Status toStatus(String s) {
+		if (s == null) return Status.OK;
+		try {
+			return Status.valueOf(s);
+		} catch (IllegalArgumentException e) {
+			return Status.OK;
+		}
+	}
+	
+	/**
+	 * Called after a record ran out of memory, to rebuild any state that
+	 * may have been left inconsistent. Does nothing by default.
+	 */
+	public void restart() {
+		
+	}
 	
 	public void cleanUp() {
 		
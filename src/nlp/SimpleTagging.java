@@ -6,10 +6,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,6 +36,7 @@ import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
 import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.trees.semgraph.SemanticGraph;
 import edu.stanford.nlp.trees.semgraph.SemanticGraphCoreAnnotations.CollapsedCCProcessedDependenciesAnnotation;
@@ -42,8 +51,54 @@ public class SimpleTagging extends SimpleFunction {
     //private final Pattern patternDocHead = Pattern.compile("<DOC id=\"(.*?)\".*?>");
     private Pattern patternDocHead = Pattern.compile("<FILENAME (.*?)>");
     private Pattern patternDocDate = Pattern.compile("\\d{8}");
-    private StanfordCoreNLP pipeline = null;
+    private AnnotationPipeline pipeline = null;
+    private AnnotationSink extraSink = null;
+    // With num_threads > 1, processBatch tags records in parallel, each
+    // thread taking a pipeline of its own from the queue
+    private int num_threads = 1;
+    private BlockingQueue<AnnotationPipeline> pipelines = null;
+    // Once per JVM, however many taggers a worker makes
+    private static boolean warmedUp = false;
+    private ExecutorService executor = null;
+    // Estimated heap needed per char of a document; documents that would
+    // not fit in the free heap are rejected instead of tagged. 0 is off
+    private long mem_per_char = 0;
+    private DocumentSplitter splitter = new DocumentSplitter(0);
     
+    /**
+     * Selects the annotator profile used by init(): with parse=true the
+     * parser is added to the tagging annotators.
+     */
+    public static void setParse(boolean parse) {
+    	doParse = parse;
+    }
+
+    /**
+     * Number of documents processBatch tags at a time. Each thread gets
+     * its own pipeline, i.e. its own copy of the models.
+     */
+    public void setNumThreads(int n) {
+    	num_threads = Math.max(1, n);
+    }
+
+    /**
+     * Heap bytes a document is assumed to need per char while tagged,
+     * e.g. 1000, or 5000 when parsing; 0 (the default) turns the check
+     * off.
+     */
+    public void setMemoryPerChar(long bytes) {
+    	mem_per_char = bytes;
+    }
+
+    /**
+     * Documents longer than this are cut into pieces at paragraph or
+     * sentence boundaries and the pieces tagged on their own; 0 (the
+     * default) never splits.
+     */
+    public void setMaxDocChars(int chars) {
+    	splitter = new DocumentSplitter(chars);
+    }
+
     public void setWikiDocHeader() {
     	patternDocHead = Pattern.compile("<DOC id=\"(.*?)\".*?>");
     }
@@ -57,15 +112,65 @@ public class SimpleTagging extends SimpleFunction {
 	    	props.put("clean.sentenceendingtags", "p|P|headline|HEADLINE|dateline|DATELINE|" +
 	    			"text|TEXT|TURN|SPEAKER|BODY|DATETIME|DOCTYPE|DOCID|" +
 	    			"DOC|ENDTIME|POST|POSTER|POSTDATE|DocID|h2|H2|STYLE|style");
-	    	props.put("clean.allowflawedxml", true);
-	    	props.put("pos.maxlen", 100);
-	    	props.put("parser.maxlen", 100);
+	    	props.put("clean.allowflawedxml", "true");
+	    	props.put("pos.maxlen", "100");
+	    	props.put("parser.maxlen", "100");
+	    }
+	    ModelCache.apply(props);
+	    // the models of the later stages load on first use; the first
+	    // pipeline reuses the annotators already built in this JVM
+	    pipeline = new LazyPipeline(props);
+	    if (!warmedUp) {
+	    	// the JIT warm-up carries over to the other and restarted pipelines
+	    	Warmup.run(pipeline);
+	    	warmedUp = true;
+	    }
+	    if (num_threads > 1) {
+	    	pipelines = new ArrayBlockingQueue<AnnotationPipeline>(num_threads);
+	    	pipelines.add(pipeline);
+	    	for (int i = 1; i < num_threads; i++) {
+	    		// Each gets annotators of its own
+	    		pipelines.add(new LazyPipeline(props, false));
+	    	}
+	    	executor = Executors.newFixedThreadPool(num_threads);
 	    }
-	    pipeline = new StanfordCoreNLP(props);
     }
 
+	/**
+	 * Drops the pipelines, which may be left in a bad state after an
+	 * OutOfMemoryError, and builds new ones.
+	 */
+	public void restart() {
+		System.err.println("Restarting pipeline");
+		pipeline = null;
+		pipelines = null;
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		synchronized (StanfordCoreNLP.class) {
+			StanfordCoreNLP.clearAnnotatorPool();
+		}
+		LazyPipeline.clearShared();
+		System.gc();
+		init();
+	}
+
 	public void cleanUp() {
 		pipeline = null;
+		pipelines = null;
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		if (extraSink != null) {
+			try {
+				extraSink.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			extraSink = null;
+		}
 		System.gc();
 	}
 	
@@ -82,73 +187,221 @@ public class SimpleTagging extends SimpleFunction {
 		return months[month-1] + " " + day + ", " + year;
 	}
 	
+	/**
+	 * Also sends every tagged document to the given sink, e.g. a ConllSink,
+	 * so that CoNLL is produced in the same pass as the escaped records.
+	 * The extra output is not covered by TextRunner checkpoints.
+	 */
+	public void setExtraSink(AnnotationSink sink) {
+		extraSink = sink;
+	}
+
 	public List<String> process(String doc){
-	    ArrayList<String> parsedSentences = new ArrayList<String>();
+	    final ArrayList<String> parsedSentences = new ArrayList<String>();
+	    AnnotationSink sink = new EscapedRecordSink(null) {
+	    	protected void emit(String record) {
+	    		parsedSentences.add(record);
+	    	}
+	    };
+	    if (extraSink != null) {
+	    	sink = new TeeSink(sink, extraSink);
+	    }
+	    try {
+	    	annotate(doc, sink);
+	    } catch (IOException e) {
+	    	e.printStackTrace();
+	    }
+		return parsedSentences;
+	}
+
+	/**
+	 * Tags a batch of documents. With more than one thread, documents are
+	 * tagged in parallel and their sentences then written in order.
+	 */
+	public void processBatch(List<String> docs, BatchSink out) {
+		if (executor == null || docs.size() < 2) {
+			super.processBatch(docs, out);
+			return;
+		}
+		ArrayList<Future<Tagged>> futures = new ArrayList<Future<Tagged>>(docs.size());
+		for (final String doc : docs) {
+			futures.add(executor.submit(new Callable<Tagged>() {
+				public Tagged call() throws Exception {
+					AnnotationPipeline pipe = pipelines.take();
+					try {
+						return tag(pipe, doc);
+					} finally {
+						pipelines.put(pipe);
+					}
+				}
+			}));
+		}
+		for (int i = 0; i < docs.size(); i++) {
+			final int idx = i;
+			final BatchSink bout = out;
+			Status status = Status.OK;
+			try {
+				Tagged t = futures.get(i).get();
+				status = t.status;
+				if (status == Status.OK) {
+					AnnotationSink sink = new EscapedRecordSink(null) {
+						protected void emit(String record) {
+							bout.output(idx, record);
+						}
+					};
+					if (extraSink != null) {
+						sink = new TeeSink(sink, extraSink);
+					}
+					write(t, sink);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				status = Status.ERROR;
+			}
+			out.status(i, status);
+		}
+	}
+
+	/**
+	 * A tagged document, not yet written out: one annotation per piece,
+	 * each starting at the char offset in begins.
+	 */
+	private static class Tagged {
+		String docid = "NA";
+		int padding = 0;
+		List<Annotation> pieces = new ArrayList<Annotation>();
+		List<Integer> begins = new ArrayList<Integer>();
+		Status status = Status.OK;
+	}
+
+	/**
+	 * Tags one document and sends its sentences to the sink.
+	 */
+	public void annotate(String doc, AnnotationSink sink) throws IOException {
+		Tagged t = tag(pipeline, doc);
+		if (t.status != Status.OK) {
+			setStatus(t.status.name());
+			return;
+		}
+		write(t, sink);
+		setStatus("OK");
+	}
+
+	/**
+	 * Runs the pipeline on one document; safe to call from several
+	 * threads with different pipelines.
+	 */
+	private Tagged tag(AnnotationPipeline pipe, String doc) {
+		Tagged t = new Tagged();
     	Matcher m = patternDocHead.matcher(doc);
-    	String docid = "NA";
-    	String datetag = "";
-    	int padding = 0;
     	if(m.find()){
-    		docid = m.group(1);
+    		t.docid = m.group(1);
     		if (matchDate) {
-	    		Matcher dm = patternDocDate.matcher(docid);
+	    		Matcher dm = patternDocDate.matcher(t.docid);
 	    		if (dm.find()) {
 	    			String datenum = dm.group();
 	    			datenum = natDate(datenum);
-	    			datetag = "<DATE>" + datenum + ".</DATE>\n";
+	    			String datetag = "<DATE>" + datenum + ".</DATE>\n";
 	    			int headend = doc.indexOf(">");
 	    			doc = doc.substring(0, headend+1) + datetag + doc.substring(headend+1);
-	    			padding = datetag.length();
+	    			t.padding = datetag.length();
 	    		}
     		}
     	}
+		if (!fitsInMemory(splitter.longestPiece(doc))) {
+			t.status = Status.REJECTED;
+			System.err.println("REJECTED DOC: " + t.docid + " (" + doc.length() + " chars)");
+			return t;
+		}
 		//doc = doc.replaceAll(" [^<>]*?>", ">");
-	    Annotation document = new Annotation(doc);
 	    try {
-	    	pipeline.annotate(document);
+	    	for (DocumentSplitter.Piece piece : splitter.split(doc)) {
+	    		Annotation document = new Annotation(piece.text);
+	    		pipe.annotate(document);
+	    		t.pieces.add(document);
+	    		t.begins.add(piece.begin);
+	    	}
 	    } catch (Error e) {
-	    	setStatus("OOM");
-	    	System.err.println("CRASHED ON DOC: " + docid);
+	    	t.status = Status.OOM;
+	    	t.pieces = null;
+	    	System.err.println("CRASHED ON DOC: " + t.docid);
 	    	e.printStackTrace();
-	    	return parsedSentences;
 	    }
-	    List<CoreMap> sentences = document.get(SentencesAnnotation.class);
-	    
+	    return t;
+	}
+
+	/**
+	 * Whether a document of the given length is likely to fit in this
+	 * thread's share of the free heap.
+	 */
+	private boolean fitsInMemory(int numChars) {
+		if (mem_per_char <= 0) return true;
+		long need = numChars * mem_per_char;
+		Runtime rt = Runtime.getRuntime();
+		// Counts garbage not yet collected as used, so errs on the safe side
+		long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		return need <= free / num_threads;
+	}
+
+	/**
+	 * Sends the sentences of a tagged document to the sink, numbering
+	 * them and shifting their offsets across pieces as if the document
+	 * had been tagged whole.
+	 */
+	private void write(Tagged t, AnnotationSink sink) throws IOException {
+	    sink.startDocument(t.docid);
+	    String[] cols = new String[7];
+	    int[] labels = new int[7];	// ids of the POS and NER columns
+	    Arrays.fill(labels, -1);
+	    LabelTable table = LabelTable.GLOBAL;
 	    int sentid = 1;
 	    if (skipFirstLine) sentid = 0;
-	    for(CoreMap sentence: sentences) {
-	    	// sentid = sentid + 1;
-		    StringBuffer sb = new StringBuffer();
-	    	sb.append("<SENT docid=\"" + docid + "\" sentid=\"" + sentid + "\">\n");
-	    	
-	    	int wordid = 0;
-	    	for (CoreLabel token: sentence.get(TokensAnnotation.class)) {
-	    		++wordid;
-	    		String word = token.get(TextAnnotation.class);
-	    		String pos = token.get(PartOfSpeechAnnotation.class);
-	    		String lemma = token.get(LemmaAnnotation.class);
-	    		String ne = token.get(NamedEntityTagAnnotation.class);
-	    		int xxbegin = token.get(CharacterOffsetBeginAnnotation.class) - padding;
-	    		int xxend = token.get(CharacterOffsetEndAnnotation.class) - padding;
-	    		//String nenorm = token.get(NormalizedNamedEntityTagAnnotation.class);
-	    		if (extraCols) {
-		    		sb.append(wordid + "\t" + word + "\t" + lemma + "\t" + pos + 
-		    				"\t" + ne + "\t" + xxbegin + "\t" + xxend + "\n");
-	    		} else {
-		    		sb.append(wordid + "\t" + word + "\t" + pos + 
-		    				"\t" + ne + "\t" + lemma + "\n");
+	    for (int p = 0; p < t.pieces.size(); p++) {
+	    	List<CoreMap> sentences = t.pieces.get(p).get(SentencesAnnotation.class);
+	    	int padding = t.padding - t.begins.get(p);
+	    	for(CoreMap sentence: sentences) {
+	    		if (sentid == 0) { // from date tag
+	    			++ sentid;
+	    			continue;
 	    		}
+	    		sink.startSentence(sentid);
+	    		
+	    		int wordid = 0;
+	    		for (CoreLabel token: sentence.get(TokensAnnotation.class)) {
+	    			++wordid;
+	    			String word = token.get(TextAnnotation.class);
+	    			String pos = token.get(PartOfSpeechAnnotation.class);
+	    			String lemma = token.get(LemmaAnnotation.class);
+	    			String ne = token.get(NamedEntityTagAnnotation.class);
+	    			int xxbegin = token.get(CharacterOffsetBeginAnnotation.class) - padding;
+	    			int xxend = token.get(CharacterOffsetEndAnnotation.class) - padding;
+	    			//String nenorm = token.get(NormalizedNamedEntityTagAnnotation.class);
+	    			cols[0] = Integer.toString(wordid);
+	    			cols[1] = word;
+	    			if (extraCols) {
+	    				cols[2] = lemma;
+	    				cols[3] = pos;
+	    				cols[4] = ne;
+	    				cols[5] = Integer.toString(xxbegin);
+	    				cols[6] = Integer.toString(xxend);
+	    				labels[3] = table.id(pos);
+	    				labels[4] = table.id(ne);
+	    				sink.token(cols, labels, 7);
+	    			} else {
+	    				cols[2] = pos;
+	    				cols[3] = ne;
+	    				cols[4] = lemma;
+	    				labels[2] = table.id(pos);
+	    				labels[3] = table.id(ne);
+	    				sink.token(cols, labels, 5);
+	    			}
+	    		}
+	    		sink.endSentence();
+	    		++ sentid;
 	    	}
-	    	sb.append("</SENT>");
-	    	++ sentid;
-	    	if (sentid == 1 && skipFirstLine) { // from date tag
-	    		continue;
-	    	}
-	    	parsedSentences.add(sb.toString());
 	    }
-	    setStatus("OK");
-	    //System.err.println("PROCESSED A DOC\t"+docid+"\t" + parsedSentences.size());
-		return parsedSentences;
+	    sink.endDocument();
+	    //System.err.println("PROCESSED A DOC\t"+docid+"\t" + sentences.size());
 	}
 	
 	
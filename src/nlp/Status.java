@@ -0,0 +1,15 @@
+package nlp;
+
+/**
+ * Outcome of processing one input record.
+ */
+public enum Status {
+	/** Processed, outputs complete. */
+	OK,
+	/** Ran out of memory (or hit another Error); the record is bad. */
+	OOM,
+	/** Failed with an exception; the record is bad. */
+	ERROR,
+	/** Not processed, since it would likely not fit in memory. */
+	REJECTED
+}
@@ -0,0 +1,53 @@
+package nlp;
+
+import java.io.IOException;
+
+/**
+ * Forwards every call to two sinks.
+ */
+public class TeeSink extends AnnotationSink {
+
+	private AnnotationSink first = null;
+	private AnnotationSink second = null;
+
+	public TeeSink(AnnotationSink a, AnnotationSink b) {
+		first = a;
+		second = b;
+	}
+
+	public void startDocument(String docid) throws IOException {
+		first.startDocument(docid);
+		second.startDocument(docid);
+	}
+
+	public void startSentence(int sentid) throws IOException {
+		first.startSentence(sentid);
+		second.startSentence(sentid);
+	}
+
+	public void token(String[] cols, int numCols) throws IOException {
+		first.token(cols, numCols);
+		second.token(cols, numCols);
+	}
+
+	public void token(String[] cols, int[] labels, int numCols) throws IOException {
+		first.token(cols, labels, numCols);
+		second.token(cols, labels, numCols);
+	}
+
+	public void endSentence() throws IOException {
+		first.endSentence();
+		second.endSentence();
+	}
+
+	public void endDocument() throws IOException {
+		first.endDocument();
+		second.endDocument();
+	}
+
+	public void close() throws IOException {
+		first.close();
+		second.close();
+	}
+
+}
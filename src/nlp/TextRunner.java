@@ -1,7 +1,9 @@
 package nlp;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -9,24 +11,46 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import util.AsyncWriter;
+import util.BlockGzipIndex;
+import util.BlockGzipOutputStream;
+import util.BlockGzipWriter;
+import util.ByteSlice;
+import util.CountingInputStream;
+import util.IO;
+import util.MappedRecordReader;
+import util.ParallelGzipOutputStream;
+import util.RecordReader;
+import util.StreamRecordReader;
 import util.Timer;
 
 public class TextRunner {
 
 	public static String decode(String coded) {
 		if (coded == null) return null;
-		StringBuffer plain = new StringBuffer();
+		StringBuilder plain = new StringBuilder(coded.length());
+		decode(coded, plain);
+		return plain.toString();
+	}
+
+	/**
+	 * Appends the decoded form of coded to plain.
+	 */
+	public static void decode(CharSequence coded, StringBuilder plain) {
 		for (int i = 0; i < coded.length(); ++i) {
 			char ch = coded.charAt(i);
 			if (ch == '\\') {
@@ -43,12 +67,19 @@ public class TextRunner {
 				plain.append(ch);
 			}
 		}
-		return plain.toString();
 	}
 
 	public static String encode(String plain) {    
 		if (plain == null) return null;
-		StringBuffer coded = new StringBuffer();
+		StringBuilder coded = new StringBuilder(plain.length() + 16);
+		encode(plain, coded);
+		return coded.toString();
+	}
+
+	/**
+	 * Appends the encoded form of plain to coded.
+	 */
+	public static void encode(CharSequence plain, StringBuilder coded) {
 		for (int i = 0; i < plain.length(); i++) {
 			char ch = plain.charAt(i);
 			switch (ch) {
@@ -59,7 +90,6 @@ public class TextRunner {
 			default: { coded.append(ch); break; }
 			}
 		}
-		return coded.toString();
 	}
 
 	static class InputFile {
@@ -68,20 +98,68 @@ public class TextRunner {
 		private long curLine = 0;
 		private long readLines = 0;
 		private File file = null;
-		private BufferedReader reader = null;
+		private RecordReader reader = null;
+		// Counts compressed bytes of gzip input; plain input is mapped
+		private CountingInputStream counter = null;
+		// Record bytes with escapes decoded
+		private byte[] plain = new byte[1 << 16];
+		// Records [range_first, range_end) are read; range_end < 0 means all
+		private long range_first = 0;
+		private long range_end = -1;
+		// Block index of block gzip input, or null
+		private BlockGzipIndex index = null;
+		// File offset where the reader was opened
+		private long openOffset = 0;
 
 		public InputFile(String parent, String fname) {
 			dir = parent;
 			name = fname;
 			file = new File(dir, name);
+			try {
+				if (IO.isGzipFile(file)) {
+					index = BlockGzipIndex.load(file);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Restricts reading to records [first, end); end < 0 reads to the
+		 * end of the file. Line offsets stay relative to the whole file.
+		 */
+		public void setRange(long first, long end) {
+			range_first = first;
+			range_end = end;
+			curLine = first;
 		}
 
 		public String name() {
 			return name;
 		}
 
+		private long rangeStartOffset() {
+			return index == null ? 0 : index.offsetAtOrAfter(range_first, file.length());
+		}
+
+		/**
+		 * Bytes of the input (range) to read.
+		 */
 		public long length() {
-			return file.length();
+			if (index == null || (range_first == 0 && range_end < 0)) return file.length();
+			long end = range_end < 0 ? file.length() : index.offsetAtOrAfter(range_end, file.length());
+			return end - rangeStartOffset();
+		}
+
+		/**
+		 * Bytes of the input (range) read so far; runs ahead of the current
+		 * record by at most the read buffers.
+		 */
+		public long bytesRead() {
+			if (reader == null) return 0;
+			long read = counter == null ? reader.position() : counter.getCount();
+			long n = openOffset + read - rangeStartOffset();
+			return Math.max(0, Math.min(n, length()));
 		}
 
 		public void close() {
@@ -98,13 +176,16 @@ public class TextRunner {
 		 */
 		public String nextRecord() {
 			try {
-				String line = reader.readLine();
+				if (range_end >= 0 && curLine >= range_end) {
+					return null;
+				}
+				ByteSlice line = reader.next();
 				if (line == null) {
 					return null;
 				} else {
 					++ curLine;
 					++ readLines;
-					return decode(line);
+					return decodeRecord(line);
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -113,19 +194,71 @@ public class TextRunner {
 		}
 
 		/**
-		 * Seek to the given position.
+		 * Decodes the escapes of a record at the byte level, then the
+		 * UTF-8, so that each record is turned into chars only once.
+		 */
+		private String decodeRecord(ByteSlice coded) throws IOException {
+			if (plain.length < coded.length()) {
+				plain = new byte[coded.length() * 2];
+			}
+			int n = 0;
+			int len = coded.length();
+			for (int i = 0; i < len; ++i) {
+				byte b = coded.byteAt(i);
+				if (b == '\\') {
+					if (i == len - 1) break;
+					byte b2 = coded.byteAt(++ i);
+					switch (b2) {
+					case 'n': { plain[n++] = '\n'; break; }
+					case 'r': { plain[n++] = '\r'; break; }
+					case 't': { plain[n++] = '\t'; break; }
+					default: { plain[n++] = b2; break; }
+					}
+				} else {
+					plain[n++] = b;
+				}
+			}
+			return new String(plain, 0, n, IO.UTF8);
+		}
+
+		/**
+		 * Seek to the given position. With a block index, reading starts at
+		 * the block holding the record instead of the top of the file.
 		 * @param lineOffset Line offset
 		 * @return
 		 */
 		public boolean seek(long lineOffset) {
 			try {
-				reader = new BufferedReader(new FileReader(file));
+				if (lineOffset < range_first) {
+					lineOffset = range_first;
+				}
+				long firstLine = 0;
+				openOffset = 0;
+				if (index != null && lineOffset > 0) {
+					int block = index.blockOf(lineOffset);
+					if (block >= 0) {
+						openOffset = index.offset(block);
+						firstLine = index.firstRecord(block);
+					}
+				}
+				if (reader != null) {
+					reader.close();
+				}
+				if (index != null || IO.isGzipFile(file)) {
+					FileInputStream raw = new FileInputStream(file);
+					raw.getChannel().position(openOffset);
+					counter = new CountingInputStream(raw);
+					reader = new StreamRecordReader(IO.openInputStream(counter, file.getPath()));
+				} else {
+					counter = null;
+					reader = new MappedRecordReader(file);
+				}
 				curLine = lineOffset;
-				if (lineOffset == 0) return true;
-				String line = reader.readLine();
-				long numLines = 1;
+				if (lineOffset == firstLine) return true;
+				ByteSlice line = reader.next();
+				long numLines = firstLine + 1;
 				while (line != null && numLines < lineOffset) {
-					line = reader.readLine();
+					line = reader.next();
 					++ numLines;
 				}
 				System.err.println("Cursor[" + name + "] = " + numLines);
@@ -145,18 +278,33 @@ public class TextRunner {
 		private String dir = null;
 		private long curLine = 0;
 		private File file = null;
-		private BufferedWriter writer = null;
+		// Writes on its own thread; wraps gz when compressing
+		private AsyncWriter writer = null;
+		private BlockGzipOutputStream gz = null;
+		private boolean compress = false;
 		private int idx = -1;
 		private long numChars = 0;
 
 		public OutputFile(String parent, String fname, int index) {
+			this(parent, fname, index, false);
+		}
+
+		/**
+		 * With compress set, the file is written as block gzip (name
+		 * suffixed ".gz") with a block index footer.
+		 */
+		public OutputFile(String parent, String fname, int index, boolean compress) {
 			dir = parent;
 			name = fname;
 			basename = fname;
+			this.compress = compress;
 			if (index >= 0) {
 				idx = index;
 				name += String.format(".%03d", index);
 			}
+			if (compress) {
+				name += ".gz";
+			}
 			file = new File(dir, name);
 		}
 		
@@ -176,6 +324,28 @@ public class TextRunner {
 			return file.length();
 		}
 
+		public boolean isOpen() {
+			return writer != null;
+		}
+
+		/**
+		 * Opens the file for the writer thread, keeping its contents if
+		 * append is set.
+		 */
+		private void openWriter(boolean append) throws IOException {
+			writer = new AsyncWriter(new OutputStreamWriter(new BufferedOutputStream(
+					new FileOutputStream(file, append), IO.BUFFER_SIZE)));
+		}
+
+		/**
+		 * Bytes written so far, compressed if compressing; this is what
+		 * the split size is compared against. The compressed size lags
+		 * behind by what the writer thread has not compressed yet.
+		 */
+		public long size() {
+			return compress ? gz.compressedSize() : numChars;
+		}
+
 		public void flush() {
 			try {
 				writer.flush();
@@ -196,6 +366,7 @@ public class TextRunner {
 			try {
 				if (writer != null) writer.close();
 				writer = null;
+				gz = null;
 				file.delete();
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -207,6 +378,10 @@ public class TextRunner {
 		 * @param outputRecords
 		 */
 		public void writeRecords(List<String> outputRecords) {
+			if (compress) {
+				writeCompressed(outputRecords);
+				return;
+			}
 			StringBuffer sb = new StringBuffer();
 			for (String rec : outputRecords) {
 				sb.append(encode(rec));
@@ -215,6 +390,29 @@ public class TextRunner {
 			try {
 				numChars += sb.length();
 				writer.write(sb.toString());
+				writer.endDocument();
+				curLine += outputRecords.size();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private StringBuilder recordBuf = new StringBuilder();
+
+		/**
+		 * Records go through the writer thread to a BlockGzipWriter, which
+		 * ends a gzip record at each newline.
+		 */
+		private void writeCompressed(List<String> outputRecords) {
+			try {
+				for (String rec : outputRecords) {
+					recordBuf.setLength(0);
+					encode(rec, recordBuf);
+					recordBuf.append('\n');
+					numChars += recordBuf.length();
+					writer.append(recordBuf);
+				}
+				writer.endDocument();
 				curLine += outputRecords.size();
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -230,6 +428,9 @@ public class TextRunner {
 		 * @param lineOffset
 		 */
 		public boolean seekAndTruncate(long lineOffset) {
+			if (compress) {
+				return seekAndTruncateCompressed(lineOffset);
+			}
 			try {
 				String tname = name + ".tmp";
 				if (writer != null) {
@@ -238,7 +439,7 @@ public class TextRunner {
 				}
 				// Start from zero
 				if (lineOffset == 0) {
-					writer = new BufferedWriter(new FileWriter(file, false));
+					openWriter(false);
 					//file.deleteOnExit();
 					curLine = 0;
 					return true;
@@ -273,7 +474,7 @@ public class TextRunner {
 				new File(dir, name + ".stale").delete();
 				// Refresh file handlers
 				file = new File(dir, name);
-				writer = new BufferedWriter(new FileWriter(file, true));
+				openWriter(true);
 				this.numChars = numChars;
 				if (numLines > 0) {
 					System.err.println("Cursor[" + name + "] = " + numLines);
@@ -287,6 +488,63 @@ public class TextRunner {
 			return false;
 		}
 
+		/**
+		 * seekAndTruncate for block gzip files: the kept records are
+		 * recompressed into a new file, which stays open for appending.
+		 * A block cut short by a crash ends the copy.
+		 */
+		private boolean seekAndTruncateCompressed(long lineOffset) {
+			try {
+				if (writer != null) {
+					writer.close();
+					writer = null;
+					gz = null;
+				}
+				String tname = name + ".tmp";
+				File tfile = new File(dir, tname);
+				BlockGzipOutputStream tgz = new BlockGzipOutputStream(
+						new BufferedOutputStream(new FileOutputStream(tfile), IO.BUFFER_SIZE));
+				long numLines = 0;
+				long numChars = 0;
+				file = new File(dir, name);
+				if (lineOffset > 0 && file.exists()) {
+					BufferedReader reader = IO.openReader(file.getPath());
+					try {
+						String line = reader.readLine();
+						while (line != null && numLines < lineOffset) {
+							byte[] b = (line + "\n").getBytes(IO.UTF8);
+							tgz.write(b);
+							tgz.endRecord();
+							numChars += line.length() + 1;
+							++ numLines;
+							line = reader.readLine();
+						}
+					} catch (EOFException e) {
+						// Truncated last block
+					}
+					reader.close();
+				}
+				if (numLines < lineOffset) {
+					System.err.println("Requested " + lineOffset + " lines but only found " +
+							numLines + " lines!");
+				}
+				tgz.flush();
+				curLine = numLines;
+				file.delete();
+				tfile.renameTo(file);
+				gz = tgz;
+				writer = new AsyncWriter(new BlockGzipWriter(gz));
+				this.numChars = numChars;
+				if (numLines > 0) {
+					System.err.println("Cursor[" + name + "] = " + numLines);
+				}
+				return true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+
 	}
 
 	class LogFile {
@@ -319,12 +577,20 @@ public class TextRunner {
 							wellFormed = false;
 							break;
 						}
+					} else if (ftype.equals("bad")) {
+						if (quarantine != null && !quarantine.seekAndTruncate(offset)) {
+							wellFormed = false;
+							break;
+						}
 					} else if (ftype.equals("out")) {
+						if (compress_output && fname.endsWith(".gz")) {
+							fname = fname.substring(0, fname.length() - 3);
+						}
 						if (split_output) {
 							int lastdot = fname.lastIndexOf('.');
 							int idx = Integer.parseInt(fname.substring(lastdot + 1));
 							fname = fname.substring(0, lastdot);
-							OutputFile sfout = new OutputFile(local_output_dir, fname, idx);
+							OutputFile sfout = new OutputFile(local_output_dir, fname, idx, compress_output);
 							outputFiles.put(fname, sfout);
 						}
 						OutputFile fout = outputFiles.get(fname);
@@ -368,6 +634,10 @@ public class TextRunner {
 					String spec = "out:" + out.name + ":" + out.curLine;
 					specs.add(spec);
 				}
+				if (quarantine != null && quarantine.isOpen()) {
+					quarantine.flush();
+					specs.add("bad:" + quarantine.name + ":" + quarantine.curLine);
+				}
 				String line = StringUtils.join(specs, "\t");
 				System.err.println("TextRunner::Commit");
 				BufferedWriter writer = new BufferedWriter(new FileWriter(new File(local_output_dir, name)));
@@ -387,8 +657,58 @@ public class TextRunner {
 	}
 
 	
+	/**
+	 * Prints a progress line and rewrites the status file
+	 * (task_name.textrunner.status), so that stragglers can be spotted
+	 * without reading stderr. Computed from counters only.
+	 */
+	private void reportProgress(InputFile fin, OutputFile fout, String state) {
+		double secs = Timer.elapsedSeconds("run");
+		long inBytes = fin.bytesRead();
+		long inTotal = fin.length();
+		long outBytes = outputBytesDone + fout.length();
+		long recs = numRecordsProcessed;
+		double recRate = secs > 0 ? recs / secs : 0;
+		double byteRate = secs > 0 ? (inBytes - inputBytesAtStart) / secs : 0;
+		long eta = -1;
+		if (byteRate > 0) {
+			eta = (long) (Math.max(0, inTotal - inBytes) / byteRate);
+		}
+		double pct = inTotal > 0 ? 100.0 * Math.min(inBytes, inTotal) / inTotal : 100;
+		System.err.println(String.format("TextRunner::Progress in=%.1f/%.1fMB (%.1f%%) " +
+				"records=%d (%.2f/s) out=%.1fMB bad=%d eta=%s",
+				inBytes / 1048576.0, inTotal / 1048576.0, pct, recs, recRate,
+				outBytes / 1048576.0, numBadRecords, eta < 0 ? "?" : readEta(eta)));
+		try {
+			File tmp = new File(local_output_dir, task_name + ".textrunner.status.tmp");
+			BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+			writer.write("task=" + task_name + "\n");
+			writer.write("state=" + state + "\n");
+			writer.write("updated_ms=" + System.currentTimeMillis() + "\n");
+			writer.write("elapsed_sec=" + (long) secs + "\n");
+			writer.write("input_bytes=" + inBytes + "\n");
+			writer.write("input_total_bytes=" + inTotal + "\n");
+			writer.write("records=" + recs + "\n");
+			writer.write(String.format("records_per_sec=%.3f\n", recRate));
+			writer.write("output_bytes=" + outBytes + "\n");
+			writer.write("bad_records=" + numBadRecords + "\n");
+			writer.write("eta_sec=" + eta + "\n");
+			writer.close();
+			File status = new File(local_output_dir, task_name + ".textrunner.status");
+			status.delete();
+			tmp.renameTo(status);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static String readEta(long secs) {
+		return String.format("%dh%02dm%02ds", secs / 3600, secs / 60 % 60, secs % 60);
+	}
+
 	private OutputFile splitOutputFile(OutputFile out) {
 		out.close();
+		outputBytesDone += out.length();
 		// Upload to the HDFS
 		if (upload_output_to_hdfs) {
 			try {
@@ -403,7 +723,7 @@ public class TextRunner {
 		}
 		// Create a new output file
 		int idx = out.getIndex() + 1;
-		OutputFile out2 = new OutputFile(local_output_dir, out.basename, idx);
+		OutputFile out2 = new OutputFile(local_output_dir, out.basename, idx, compress_output);
 		out2.seekAndTruncate(0);
 		outputFiles.put(out.basename, out2);
 		logger.commit();
@@ -417,6 +737,9 @@ public class TextRunner {
 		for (OutputFile fout : outputFiles.values()) {
 			fout.seekAndTruncate(0);
 		}
+		if (quarantine != null) {
+			quarantine.seekAndTruncate(0);
+		}
 		logger.commit();
 	}
 
@@ -434,24 +757,46 @@ public class TextRunner {
 	private boolean upload_output_to_hdfs = false;
 	// Whether to split output file
 	private boolean split_output = false;
-	// Output split size
+	// Output split size, in compressed bytes if compressing
 	private long output_split_size = 30 * (1 << 20);
+	// Whether to write outputs as block gzip
+	private boolean compress_output = false;
+	// Record range of the input to process; end < 0 means to the end
+	private long input_range_first = 0;
+	private long input_range_end = -1;
 
 	private HashMap<String, InputFile> inputFiles = new HashMap<String, InputFile>();
 	private HashMap<String, OutputFile> outputFiles = new HashMap<String, OutputFile>();
 	private LogFile logger = null;
 
+	// Where bad records go; null passes them through into the output
+	private String quarantine_name = null;
+	private OutputFile quarantine = null;
+	private OomPolicy oom_policy = OomPolicy.SKIP;
+	private boolean aborted = false;
+	// Number of records passed to the function at a time
+	private int batch_size = 1;
+	// Set by another thread to end run() at the next batch
+	private volatile boolean stop_requested = false;
+
+	// Progress counters of the current run
+	private long numRecordsProcessed = 0;
+	private long numBadRecords = 0;
+	private long inputBytesAtStart = 0;
+	private long outputBytesDone = 0;
+
 	private void addInputFile(String fname) {
 		InputFile fin = new InputFile(local_input_dir, fname);
+		fin.setRange(input_range_first, input_range_end);
 		inputFiles.put(fname, fin);
 	}
 
 	private void addOutputFile(String fname) {
 		OutputFile fout; 
 		if (split_output) {
-			fout = new OutputFile(local_output_dir, fname, 0);
+			fout = new OutputFile(local_output_dir, fname, 0, compress_output);
 		} else {
-			fout = new OutputFile(local_output_dir, fname, -1);
+			fout = new OutputFile(local_output_dir, fname, -1, compress_output);
 		}
 		outputFiles.put(fname, fout);
 	}
@@ -472,14 +817,78 @@ public class TextRunner {
 		hdfs_output_dir = dir;
 	}
 	
+	public void setCheckpointInterval(int seconds) {
+		checkpoint_interval = seconds;
+	}
+	
 	public void setSplitOutput(boolean val) {
 		split_output = val;
 	}
 	
+	public void setOutputSplitSize(long bytes) {
+		output_split_size = bytes;
+	}
+	
+	/**
+	 * Write outputs as block gzip; must be set before adding them.
+	 */
+	public void setCompressOutput(boolean val) {
+		compress_output = val;
+	}
+	
+	/**
+	 * Process only input records [first, end), e.g. one of the ranges from
+	 * BlockGzipIndex.splitRanges; must be set before adding the input.
+	 */
+	public void setInputRange(long first, long end) {
+		input_range_first = first;
+		input_range_end = end;
+	}
+	
 	public void setUploadToHdfs(boolean val) {
 		upload_output_to_hdfs = val;
 	}
 	
+	/**
+	 * Writes records that could not be processed (bad status) to this
+	 * file in the output dir instead of passing them through into the
+	 * output, so they can be looked at or rerun separately.
+	 */
+	public void setQuarantineFile(String fname) {
+		quarantine_name = fname;
+	}
+
+	public void setOomPolicy(OomPolicy policy) {
+		oom_policy = policy;
+	}
+
+	/**
+	 * Whether run() stopped because of OomPolicy.ABORT.
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+	
+	/**
+	 * Records per SimpleFunction.processBatch call; checkpoints and splits
+	 * happen between batches.
+	 */
+	public void setBatchSize(int n) {
+		batch_size = Math.max(1, n);
+	}
+	
+	/**
+	 * Asks run() to checkpoint and return after the current batch,
+	 * keeping the log so that the file can be resumed.
+	 */
+	public void stop() {
+		stop_requested = true;
+	}
+
+	public boolean isStopped() {
+		return stop_requested;
+	}
+	
 	public TextRunner(String name, 
 			SimpleFunction function) {
 		task_name = name;
@@ -489,9 +898,16 @@ public class TextRunner {
 
 	public void run() {
 		func.init();
+		if (quarantine_name != null) {
+			quarantine = new OutputFile(local_output_dir, quarantine_name, -1, compress_output);
+		}
 		Timer.resetClock();
 		System.err.println("Recovering...");
 		logger.recover();
+		if (quarantine != null && !quarantine.isOpen()) {
+			// Log from before the quarantine was used
+			quarantine.seekAndTruncate(0);
+		}
 		Timer.printElapsed();
 
 		System.err.println("Processing...");
@@ -502,52 +918,112 @@ public class TextRunner {
 		}
 		InputFile fin = (InputFile)inputFiles.values().toArray()[0];
 		OutputFile fout = (OutputFile)outputFiles.values().toArray()[0];
-		int numRecordsProcessed = 0;
-		long numBadRecords = 0;
+		numRecordsProcessed = 0;
+		numBadRecords = 0;
+		inputBytesAtStart = fin.bytesRead();
+		Timer.start("run");
 		Timer.start("runner");
-		String recIn = fin.nextRecord();
-		while (recIn != null) {
-			List<String> recsOut = func.process(recIn);
-			fout.writeRecords(recsOut);
-			if (func.getStatus().equals("OOM")) {
-				recsOut	= new ArrayList<String>();
-				recsOut.add(recIn);
-				fout.writeRecords(recsOut);
+		final ArrayList<String> batch = new ArrayList<String>(batch_size);
+		final ArrayList<String> recsOut = new ArrayList<String>();
+		final ArrayList<String> recsBad = new ArrayList<String>();
+		final boolean[] sawOom = new boolean[1];
+		BatchSink sink = new BatchSink() {
+			public void output(int i, String record) {
+				recsOut.add(record);
+			}
+
+			public void status(int i, Status status) {
+				if (status == Status.OK) return;
 				numBadRecords ++;
+				if (status == Status.OOM) sawOom[0] = true;
+				if (quarantine != null) {
+					recsBad.add(batch.get(i));
+				} else {
+					// Pass the bad record through as is
+					recsOut.add(batch.get(i));
+				}
 			}
-			++ numRecordsProcessed;
-			if (split_output && fout.numChars >= output_split_size) {
+		};
+		while (true) {
+			batch.clear();
+			String recIn = fin.nextRecord();
+			while (recIn != null) {
+				batch.add(recIn);
+				if (batch.size() >= batch_size) break;
+				recIn = fin.nextRecord();
+			}
+			if (batch.isEmpty()) break;
+			recsOut.clear();
+			recsBad.clear();
+			sawOom[0] = false;
+			long t0 = Timer.now();
+			func.processBatch(batch, sink);
+			Timer.recordSince("batch", t0);
+			fout.writeRecords(recsOut);
+			if (!recsBad.isEmpty()) {
+				quarantine.writeRecords(recsBad);
+			}
+			numRecordsProcessed += batch.size();
+			if (sawOom[0]) {
+				if (oom_policy == OomPolicy.RESTART_PIPELINE) {
+					func.restart();
+				} else if (oom_policy == OomPolicy.ABORT) {
+					System.err.println("TextRunner::Abort after OOM");
+					aborted = true;
+					stop_requested = true;
+				}
+			}
+			if (split_output && fout.size() >= output_split_size) {
 				fout = splitOutputFile(fout);
 			}
 			double elapsed = Timer.elapsedSeconds("runner");
 			if (elapsed >= checkpoint_interval) {
 				logger.commit();
+				reportProgress(fin, fout, "running");
 				Timer.start("runner");
 			}
-			recIn = fin.nextRecord();
+			if (stop_requested) {
+				// Leave the checkpoint for whoever picks the file up next
+				logger.commit();
+				fin.close();
+				fout.close();
+				if (quarantine != null) quarantine.close();
+				reportProgress(fin, fout, aborted ? "aborted" : "stopped");
+				func.cleanUp();
+				System.err.println("TextRunner::Stopped");
+				return;
+			}
 		}
 		fin.close();
 		fout.close();
+		if (quarantine != null) quarantine.close();
+		reportProgress(fin, fout, "done");
 		if (upload_output_to_hdfs) {
 			try {
 				if (fout.length() > 0) {
 					System.out.println("uploading " + fout.getFile().getPath());
 					hdfs.copyFromLocalFile(new Path(fout.getFile().getPath()), hdfs_output_dir);
 				}
+				if (quarantine != null && quarantine.curLine > 0) {
+					System.out.println("uploading " + quarantine.getFile().getPath());
+					hdfs.copyFromLocalFile(new Path(quarantine.getFile().getPath()), hdfs_output_dir);
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 			fout.suicide();
+			if (quarantine != null) quarantine.suicide();
 		}
 		logger.remove();
 		func.cleanUp();
 		System.err.println("#BAD_RECORDS = " + numBadRecords);
+		Timer.printStats();
 		Timer.printElapsed();
 	}
 	
 	public static void gzipFile(String from, String to) throws IOException {
 		FileInputStream in = new FileInputStream(from);
-		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(to));
+		ParallelGzipOutputStream out = new ParallelGzipOutputStream(new FileOutputStream(to));
 		byte[] buffer = new byte[409600];
 		int bytesRead;
 		while ((bytesRead = in.read(buffer)) != -1)
@@ -559,12 +1035,73 @@ public class TextRunner {
 	
 	
 	
+	/**
+	 * Packs an escaped record file (one record per line, optionally
+	 * gzipped) into block gzip with a sidecar index (fout.idx), so that
+	 * TextRunner tasks can each take a record range of it. Prints the
+	 * ranges for the given number of parts.
+	 */
+	public static void pack(String fin, String fout, int parts) throws IOException {
+		BufferedReader is = IO.openReader(fin);
+		BlockGzipOutputStream os = new BlockGzipOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fout), IO.BUFFER_SIZE));
+		String line = is.readLine();
+		while (line != null) {
+			os.write((line + "\n").getBytes(IO.UTF8));
+			os.endRecord();
+			line = is.readLine();
+		}
+		is.close();
+		os.close();
+		BlockGzipIndex index = os.index();
+		index.writeSidecar(BlockGzipIndex.sidecar(new File(fout)));
+		System.out.println(fout + ": " + index.numRecords() + " records in " +
+				index.numBlocks() + " blocks");
+		long[] bounds = index.splitRanges(parts);
+		for (int i = 0; i + 1 < bounds.length; i++) {
+			System.out.println("range " + i + ": " + bounds[i] + ":" + bounds[i + 1]);
+		}
+	}
+
+	/**
+	 * Tags -Dtag.threads documents at a time (default 1), in batches of
+	 * -Dbatch.size records (default twice the threads). Bad records go to
+	 * the quarantine file NAME.bad, and -Doom.policy (SKIP,
+	 * RESTART_PIPELINE or ABORT; default RESTART_PIPELINE) applies after
+	 * an OutOfMemoryError. -Dtag.mem_per_char (heap bytes per char, e.g.
+	 * 1000; default 0, off) rejects documents that would not fit in the
+	 * free heap, and documents over -Dtag.max_doc_chars chars are tagged
+	 * in pieces (default 0, never).
+	 */
+	static void configureTagging(TextRunner tr, SimpleTagging stn, String name) {
+		int threads = Integer.getInteger("tag.threads", 1);
+		stn.setNumThreads(threads);
+		if (System.getProperty("tag.mem_per_char") != null) {
+			stn.setMemoryPerChar(Long.getLong("tag.mem_per_char"));
+		}
+		stn.setMaxDocChars(Integer.getInteger("tag.max_doc_chars", 0));
+		tr.setBatchSize(Integer.getInteger("batch.size", threads > 1 ? 2 * threads : 1));
+		tr.setQuarantineFile(name + ".bad");
+		tr.setOomPolicy(OomPolicy.valueOf(System.getProperty("oom.policy", "RESTART_PIPELINE")));
+	}
+
+	/**
+	 * Opens the HDFS at the URI given by -Dhdfs.uri (default the CHTC name
+	 * node).
+	 */
+	public static FileSystem openHdfs() throws IOException {
+		Configuration conf = new Configuration();
+		conf.set("fs.default.name", System.getProperty("hdfs.uri", "hdfs://hdfs-nn.chtc.wisc.edu:9000/"));
+		conf.set("dfs.replication", "2");
+		conf.set("dfs.blocksize", "" + (1 << 25));
+		return FileSystem.get(conf);
+	}
+
 	public static void heavy(String[] args) throws Exception {
 		if (args.length < 3) {
 			System.err.println("args: hdfs_din hdfs_dout file_name [workspace_dir [\"wiki\"]]");
 			System.exit(0);
 		}
-		final String HDFS_URI = "hdfs://hdfs-nn.chtc.wisc.edu:9000/";
 		final String HDFS_DIR_IN = args[0] + "/";
 		final String HDFS_DIR_OUT = args[1] + "/";
 		String fname = args[2];
@@ -575,54 +1112,225 @@ public class TextRunner {
 		boolean iswiki = false;
 		if (args.length > 4 && args[4].equals("wiki")) iswiki = true;
 		
-		Configuration conf = new Configuration();
-		conf.set("fs.default.name", HDFS_URI);
-		conf.set("dfs.replication", "2");
-		conf.set("dfs.blocksize", "" + (1 << 25));
-		FileSystem dfs = FileSystem.get(conf);
-		
+		FileSystem dfs = openHdfs();
+		processHdfsFile(dfs, HDFS_DIR_IN, HDFS_DIR_OUT, fname, workDir, iswiki, null);
+	}
+
+	/**
+	 * Downloads fname from the HDFS, tags it and uploads the split output.
+	 * Returns false if it failed or was stopped by the lease keeper.
+	 */
+	static boolean processHdfsFile(FileSystem dfs, String dirIn, String dirOut, String fname,
+			String workDir, boolean iswiki, LeaseKeeper keeper) throws IOException {
 		String local_indir = workDir;
 		String local_outdir = workDir;
 		
 		// Download data
 		if (!new File(local_indir, fname).exists()) {
 			System.err.println("Downloading " + fname);
-			dfs.copyToLocalFile(new Path(HDFS_DIR_IN, fname), 
+			dfs.copyToLocalFile(new Path(dirIn, fname), 
 					new Path(local_indir, fname));
 			new File(local_indir, fname).deleteOnExit();
 		}
 		
 		// Run it
 		System.err.println("Tagging...");
-		SimpleTextNormalizer fnorm = new SimpleTextNormalizer();
 		SimpleTagging stn = new SimpleTagging();
 		if (iswiki) {
 			stn.setWikiDocHeader();
 		}
 		
 		TextRunner tr = new TextRunner(fname, stn);
+		configureTagging(tr, stn, fname);
 		tr.setHDFS(dfs);
-		tr.setHdfsOutputDir(new Path(HDFS_DIR_OUT));
+		tr.setHdfsOutputDir(new Path(dirOut));
 		tr.setUploadToHdfs(true);
 		tr.setSplitOutput(true);
+		tr.setCompressOutput(true);
 		tr.setLocalInputDir(local_indir);
 		tr.setLocalOutputDir(local_outdir);
 		tr.addInputFile(fname);
 		tr.addOutputFile(fname + ".ner");
+		if (keeper != null) {
+			keeper.watch(tr);
+		}
 		
+		boolean ok = true;
 		try{
 			tr.run();
 		} catch (Exception e) {
 			e.printStackTrace();
+			ok = false;
+		}
+		if (!ok || tr.isStopped()) {
+			if (tr.isAborted()) {
+				// Leave the heap behind; the next JVM resumes the file
+				if (keeper != null) keeper.release();
+				System.exit(2);
+			}
+			return false;
 		}
 		// Clean up
 		System.err.println("Removing " + fname);
 		new File(local_indir, fname).delete();
 		
 		System.err.println("Done!");
+		return true;
+	}
+
+	/**
+	 * Renews a lease every third of its length while a file is processed,
+	 * and stops the TextRunner if the lease was lost.
+	 */
+	static class LeaseKeeper extends Thread {
+		private FileLeaseStore store;
+		private String name;
+		private String worker;
+		private volatile TextRunner runner = null;
+		private volatile boolean finished = false;
+		private volatile boolean lost = false;
+
+		public LeaseKeeper(FileLeaseStore store, String name, String worker) {
+			this.store = store;
+			this.name = name;
+			this.worker = worker;
+			setDaemon(true);
+		}
+
+		public void watch(TextRunner tr) {
+			runner = tr;
+			if (lost) tr.stop();
+		}
+
+		public boolean lost() {
+			return lost;
+		}
+
+		public void finish() {
+			finished = true;
+			interrupt();
+		}
+
+		/**
+		 * Stops renewing and gives the file back.
+		 */
+		public void release() {
+			finish();
+			try {
+				store.release(name, worker);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		public void run() {
+			while (!finished) {
+				try {
+					Thread.sleep(Math.max(1000, store.getLeaseMillis() / 3));
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if (finished) break;
+				try {
+					if (!store.renew(name, worker)) {
+						System.err.println("Lost lease of " + name);
+						lost = true;
+						if (runner != null) runner.stop();
+						break;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the files of an HDFS directory to the lease store, then reports
+	 * progress until all of them are done.
+	 */
+	public static void coordinate(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("args: coordinate lease_dir hdfs_din [report_seconds]");
+			System.exit(0);
+		}
+		FileLeaseStore store = new LocalLeaseStore(new File(args[0]));
+		FileSystem dfs = openHdfs();
+		for (FileStatus st : dfs.listStatus(new Path(args[1]))) {
+			if (!st.isDir()) {
+				store.add(st.getPath().getName());
+			}
+		}
+		long interval = args.length > 2 ? Long.parseLong(args[2]) : 60;
+		while (true) {
+			int pending = store.numPending();
+			System.err.println("TextRunner::Queue pending=" + pending + " leased=" +
+					store.numLeased() + " done=" + store.numDone() + " failed=" + store.numFailed());
+			if (pending == 0) break;
+			Thread.sleep(interval * 1000);
+		}
+	}
+
+	/**
+	 * Claims files from the lease store and processes them one after
+	 * another until none are left. Several workers can share the store;
+	 * a file left by a dead worker is taken over once its lease expires.
+	 * A file that fails -Dwork.max_attempts times (default 3) is set
+	 * aside, so that one bad file does not hold up the worker.
+	 */
+	public static void work(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("args: work lease_dir hdfs_din hdfs_dout [workspace_dir [\"wiki\"]]");
+			System.exit(0);
+		}
+		FileLeaseStore store = new LocalLeaseStore(new File(args[0]));
+		if (System.getProperty("lease.seconds") != null) {
+			store.setLeaseMillis(1000 * Long.parseLong(System.getProperty("lease.seconds")));
+		}
+		store.setMaxAttempts(Integer.getInteger("work.max_attempts", 3));
+		String dirIn = args[1] + "/";
+		String dirOut = args[2] + "/";
+		String workDir = args.length > 3 ? args[3] + "/" : "./";
+		boolean iswiki = args.length > 4 && args[4].equals("wiki");
+		String worker = ManagementFactory.getRuntimeMXBean().getName();
+		FileSystem dfs = openHdfs();
+		int numDone = 0;
+		while (true) {
+			String fname = store.claim(worker);
+			if (fname == null) {
+				if (store.numPending() == 0) break;
+				// The rest are leased; wait for them to finish or expire
+				Thread.sleep(Math.max(1000, store.getLeaseMillis() / 3));
+				continue;
+			}
+			System.err.println("TextRunner::Claimed " + fname + " as " + worker);
+			LeaseKeeper keeper = new LeaseKeeper(store, fname, worker);
+			keeper.start();
+			boolean ok = false;
+			try {
+				ok = processHdfsFile(dfs, dirIn, dirOut, fname, workDir, iswiki, keeper);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			keeper.finish();
+			if (ok && !keeper.lost()) {
+				store.complete(fname, worker);
+				++ numDone;
+			} else if (!keeper.lost()) {
+				if (store.fail(fname, worker)) {
+					System.err.println("TextRunner::Giving up on " + fname + " after "
+							+ store.getMaxAttempts() + " attempts");
+				}
+			}
+		}
+		System.err.println("TextRunner::Worker " + worker + " done, " + numDone + " files");
 	}
 
 	public static void giga(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("args: din fin dout fout [conll_out|- [first:end]]");
+			System.exit(0);
+		}
 		String din = args[0] + "/";
 		String fin = args[1];
 		String dout = args[2] + "/";
@@ -631,9 +1339,24 @@ public class TextRunner {
 		// Run it
 		System.err.println("Tagging...");
 		SimpleTagging stn = new SimpleTagging();
-		TextRunner tr = new TextRunner(fin, stn);
+		if (args.length > 4 && !args[4].equals("-")) {
+			// CoNLL in the same pass, instead of running Unescaper afterwards
+			stn.setExtraSink(new ConllSink(IO.openWriter(dout + args[4]), ConllLayout.WIKI_COLS));
+		}
+		long first = 0, end = -1;
+		String task = fin;
+		if (args.length > 5) {
+			// Record range of fin, so that several tasks can share one file
+			String[] range = args[5].split(":");
+			first = Long.parseLong(range[0]);
+			end = Long.parseLong(range[1]);
+			task = fin + "." + first + "-" + end;
+		}
+		TextRunner tr = new TextRunner(task, stn);
+		configureTagging(tr, stn, task);
 		tr.setLocalInputDir(din);
 		tr.setLocalOutputDir(dout);
+		tr.setInputRange(first, end);
 		tr.addInputFile(fin);
 		tr.addOutputFile(fout);
 		try{
@@ -641,12 +1364,31 @@ public class TextRunner {
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		if (tr.isAborted()) {
+			System.exit(2);
+		}
 		
 		System.err.println("Done!");
 	}
 
 	public static void main(String[] args) throws Exception {
 
+		if (args.length > 0 && args[0].equals("work")) {
+			work(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("coordinate")) {
+			coordinate(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("pack")) {
+			if (args.length < 3) {
+				System.err.println("args: pack fin fout.gz [num_ranges]");
+				System.exit(0);
+			}
+			pack(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 1);
+			return;
+		}
 		giga(args);
 		//heavy(args, "/ClueWebPlainTextEscaped/", "/ClueWebTagged/");
 		
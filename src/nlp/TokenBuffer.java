@@ -0,0 +1,183 @@
+package nlp;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of one annotated document, stored column by column in
+ * parallel arrays instead of as an object per token. Tokens are indexed
+ * 0..size()-1 across the whole document; sentence s covers the tokens
+ * from sentenceStart(s) up to sentenceStart(s + 1). POS, NER and
+ * dependency labels are kept as ids into a LabelTable.
+ *
+ * clear() keeps the arrays, so one buffer can be reused for every
+ * document of a run without allocating per token.
+ */
+public class TokenBuffer {
+
+	private LabelTable labels = null;
+
+	private int numTokens = 0;
+	private String[] word = new String[256];
+	private String[] lemma = new String[256];
+	private int[] pos = new int[256];
+	private int[] ne = new int[256];
+	private int[] begin = new int[256];
+	private int[] end = new int[256];
+	private int[] depLabel = new int[256];
+	private int[] depParent = new int[256];
+	private int[] corefID = new int[256];
+	private int[] mentionID = new int[256];
+
+	private int numSentences = 0;
+	private int[] sentStart = new int[16];
+
+	// Label of tokens that are not the target of a dependency
+	private int noDep;
+
+	public TokenBuffer(LabelTable labels) {
+		this.labels = labels;
+		noDep = labels.id("_");
+	}
+
+	public LabelTable labels() {
+		return labels;
+	}
+
+	/**
+	 * Empties the buffer for the next document.
+	 */
+	public void clear() {
+		// Drop the word refs so the last document can be collected
+		Arrays.fill(word, 0, numTokens, null);
+		Arrays.fill(lemma, 0, numTokens, null);
+		numTokens = 0;
+		numSentences = 0;
+	}
+
+	/**
+	 * Starts a sentence; tokens added from now on belong to it.
+	 */
+	public void startSentence() {
+		if (numSentences + 1 >= sentStart.length) {
+			sentStart = Arrays.copyOf(sentStart, 2 * sentStart.length);
+		}
+		sentStart[numSentences++] = numTokens;
+		sentStart[numSentences] = numTokens;
+	}
+
+	/**
+	 * Appends a token to the current sentence, with no dependency parent
+	 * and no coref mention, and returns its index.
+	 */
+	public int addToken(String w, String p, String l, String n, int b, int e) {
+		if (numTokens == word.length) grow();
+		int i = numTokens++;
+		word[i] = w;
+		lemma[i] = l;
+		pos[i] = labels.id(p);
+		ne[i] = labels.id(n);
+		begin[i] = b;
+		end[i] = e;
+		depLabel[i] = noDep;
+		depParent[i] = 0;
+		corefID[i] = -1;
+		mentionID[i] = -1;
+		sentStart[numSentences] = numTokens;
+		return i;
+	}
+
+	private void grow() {
+		int n = 2 * word.length;
+		word = Arrays.copyOf(word, n);
+		lemma = Arrays.copyOf(lemma, n);
+		pos = Arrays.copyOf(pos, n);
+		ne = Arrays.copyOf(ne, n);
+		begin = Arrays.copyOf(begin, n);
+		end = Arrays.copyOf(end, n);
+		depLabel = Arrays.copyOf(depLabel, n);
+		depParent = Arrays.copyOf(depParent, n);
+		corefID = Arrays.copyOf(corefID, n);
+		mentionID = Arrays.copyOf(mentionID, n);
+	}
+
+	public int size() {
+		return numTokens;
+	}
+
+	public int numSentences() {
+		return numSentences;
+	}
+
+	/**
+	 * Index of the first token of sentence s; for s == numSentences(),
+	 * the number of tokens.
+	 */
+	public int sentenceStart(int s) {
+		return sentStart[s];
+	}
+
+	/**
+	 * Sets the dependency of a token; label is an id in labels().
+	 */
+	public void setDependency(int token, int label, int parent) {
+		depLabel[token] = label;
+		depParent[token] = parent;
+	}
+
+	public void setCoref(int token, int cluster, int mention) {
+		corefID[token] = cluster;
+		mentionID[token] = mention;
+	}
+
+	public String word(int i) {
+		return word[i];
+	}
+
+	public String lemma(int i) {
+		return lemma[i];
+	}
+
+	public String pos(int i) {
+		return labels.name(pos[i]);
+	}
+
+	public String ne(int i) {
+		return labels.name(ne[i]);
+	}
+
+	public int begin(int i) {
+		return begin[i];
+	}
+
+	public int end(int i) {
+		return end[i];
+	}
+
+	public String depLabel(int i) {
+		return labels.name(depLabel[i]);
+	}
+
+	public int posId(int i) {
+		return pos[i];
+	}
+
+	public int neId(int i) {
+		return ne[i];
+	}
+
+	public int depLabelId(int i) {
+		return depLabel[i];
+	}
+
+	public int depParent(int i) {
+		return depParent[i];
+	}
+
+	public int corefID(int i) {
+		return corefID[i];
+	}
+
+	public int mentionID(int i) {
+		return mentionID[i];
+	}
+}
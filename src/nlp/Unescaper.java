@@ -1,108 +1,189 @@
 package nlp;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import util.ByteSlice;
+import util.IO;
+import util.RecordReader;
 import util.Timer;
 
+/**
+ * Converts escaped sentence records (one per line, as written by
+ * TextRunner) into CoNLL. The token columns are scanned in place, so a
+ * record is decoded once and never split into Strings.
+ */
 public class Unescaper {
 
 	private static int max_sent_len = 100;
-	private static final boolean useAllCols = true;
-    private static final Pattern patternSentHead = Pattern.compile("<SENT docid=\"(.*?)\" sentid=\"(.*?)\">");
-	
-	private String sanitize(String s) {
-		return s.replace(' ', '_');
+	private static final Pattern patternSentHead = Pattern.compile("<SENT docid=\"(.*?)\" sentid=\"(.*?)\">");
+	// Flush converted text to the writer once it grows beyond this
+	private static final int flush_size = 1 << 16;
+
+	private ConllLayout layout = null;
+	private boolean silent = false;
+	private boolean compress_output = false;
+	private int num_workers = Runtime.getRuntime().availableProcessors();
+
+	// Per-instance scratch space; one Unescaper must not be shared by threads
+	private Matcher headMatcher = patternSentHead.matcher("");
+	private int[] colStart = null;
+
+	public Unescaper() {
+		this(ConllLayout.ALL_COLS);
+	}
+
+	public Unescaper(ConllLayout layout) {
+		this.layout = layout;
+		colStart = new int[layout.numCols() + 1];
+	}
+
+	public void setSilent(boolean val) {
+		silent = val;
+	}
+
+	public void setCompressOutput(boolean val) {
+		compress_output = val;
+	}
+
+	public void setNumWorkers(int n) {
+		num_workers = n;
 	}
-	
+
+	/**
+	 * Returns a converter with the same settings, for use by another thread.
+	 */
+	protected Unescaper copy() {
+		Unescaper u = new Unescaper(layout);
+		u.silent = silent;
+		u.compress_output = compress_output;
+		return u;
+	}
+
 	public ArrayList<String> lineToConll(String block) {
 		ArrayList<String> lines = new ArrayList<String>();
-		String[] parts = block.split("\n");
-		if (parts.length <= 2) return lines;
-		String header = parts[0];
-		if (!header.startsWith("<SENT")) return lines;
-		Matcher m = patternSentHead.matcher(header);
-		String docid = null, sentid = null;
-		if (m.find()) {
-			docid = m.group(1);
-			sentid = m.group(2);
-		} else {
-			return lines;
+		StringBuilder sb = new StringBuilder();
+		if (appendConll(block, sb) == 0) return lines;
+		int from = 0;
+		int to = sb.indexOf("\n");
+		while (to > from) {
+			lines.add(sb.substring(from, to));
+			from = to + 1;
+			to = sb.indexOf("\n", from);
+		}
+		return lines;
+	}
+
+	/**
+	 * Appends the CoNLL lines of one decoded sentence record to out,
+	 * followed by a blank line. Returns the number of token lines
+	 * written; nothing is appended if the record is rejected.
+	 */
+	public int appendConll(CharSequence block, StringBuilder out) {
+		int end = block.length();
+		while (end > 0 && block.charAt(end - 1) == '\n') --end;
+		int headEnd = indexOf(block, '\n', 0, end);
+		if (headEnd < 0) return 0;
+		int lastLine = lastIndexOf(block, '\n', headEnd, end);
+		if (lastLine == headEnd) return 0;
+		headMatcher.reset(block.subSequence(0, headEnd));
+		if (!headMatcher.lookingAt()) return 0;
+		int numToks = 1;
+		for (int i = headEnd + 1; i < lastLine; i++) {
+			if (block.charAt(i) == '\n') ++numToks;
 		}
-		if (parts.length > max_sent_len + 1) {
-			System.err.println("skipped long sent of size " + (parts.length-2));
-			return lines;
+		if (numToks >= max_sent_len) {
+			if (!silent) System.err.println("skipped long sent of size " + numToks);
+			return 0;
 		}
-		for (int i = 1; i < parts.length - 1; i++) {
-			String[] cols = parts[i].split("\t");
-			if (cols.length != 8) {
-				System.err.println("SHOULD BE EIGHT COLUMNS:\n" + parts[i]);
-				break;
+		String docid = headMatcher.group(1);
+		String sentid = headMatcher.group(2);
+		int numCols = layout.numCols();
+		int written = 0;
+		int lineStart = headEnd + 1;
+		while (lineStart <= lastLine) {
+			int lineEnd = indexOf(block, '\n', lineStart, lastLine);
+			if (lineEnd < 0) lineEnd = lastLine;
+			int cols = 0;
+			colStart[0] = lineStart;
+			for (int i = lineStart; i < lineEnd && cols < numCols; i++) {
+				if (block.charAt(i) == '\t') colStart[++cols] = i + 1;
 			}
-			if (!useAllCols) {
-				String id = cols[0];
-				String word = sanitize(cols[1]);
-				String lemma = sanitize(cols[2]);
-				String pos = cols[3];
-				String[] ncols = {id, word, lemma, pos, pos, docid + ":" + sentid};
-				lines.add(StringUtils.join(ncols, "\t"));
+			if (cols == numCols - 1) {
+				colStart[numCols] = lineEnd + 1;
 			} else {
-				lines.add(parts[i] + "\t" + docid + ":" + sentid);
+				System.err.println("SHOULD BE " + numCols + " COLUMNS:\n" +
+						block.subSequence(lineStart, lineEnd));
+				break;
 			}
+			layout.appendLine(block, colStart, docid, sentid, out);
+			out.append('\n');
+			++ written;
+			lineStart = lineEnd + 1;
 		}
-		return lines;
+		if (written > 0) out.append('\n');
+		return written;
 	}
 
+	private static int indexOf(CharSequence s, char ch, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (s.charAt(i) == ch) return i;
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(CharSequence s, char ch, int from, int to) {
+		for (int i = to - 1; i > from; i--) {
+			if (s.charAt(i) == ch) return i;
+		}
+		return from;
+	}
+
+	/**
+	 * Converts a file of records. Records are read as bytes and never
+	 * decoded from UTF-8: the scanning only looks for ASCII delimiters,
+	 * and the bytes are written back unchanged.
+	 */
 	public void unescape(String fin, String fout) {
 		try {
-	    BufferedReader is = null;
-	    if (!fin.endsWith(".gz")) {
-	    	is = new BufferedReader(new FileReader(fin));
-	    } else {
-		    FileInputStream fis = new FileInputStream(fin);
-		    GZIPInputStream gzis = new GZIPInputStream(fis);
-		    InputStreamReader xover = new InputStreamReader(gzis);
-		    is = new BufferedReader(xover);
-	    }
-
-		BufferedWriter os = new BufferedWriter(new FileWriter(fout));
-	    
-	    String line = is.readLine();
-	    while (line != null) {
-	    	String palin = TextRunner.decode(line);
-	    	ArrayList<String> toklines = lineToConll(palin);
-	    	line = is.readLine();
-	    	if (toklines == null || toklines.size() == 0) {
-	    		continue;
-	    	}
-	    	for (String tok : toklines) {
-	    		os.write(tok + "\n");
-	    	}
-	    	os.write("\n");
-	    }
-		is.close();
-		os.close();
+			RecordReader is = RecordReader.open(fin);
+			BufferedWriter os = IO.openRawWriter(fout);
+			StringBuilder plain = new StringBuilder();
+			StringBuilder conll = new StringBuilder(flush_size * 2);
+			ByteSlice line = is.next();
+			while (line != null) {
+				plain.setLength(0);
+				TextRunner.decode(line, plain);
+				appendConll(plain, conll);
+				if (conll.length() >= flush_size) {
+					os.append(conll);
+					conll.setLength(0);
+				}
+				line = is.next();
+			}
+			os.append(conll);
+			is.close();
+			os.close();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
-	public void unescapeDir(String din, String dout) {
+	/**
+	 * Converts every file in din into dout, num_workers files at a time.
+	 */
+	public void unescapeDir(String din, final String dout) {
 		File dir = new File(din);
 		String[] kids = dir.list();
 		if(kids == null){
@@ -111,21 +192,40 @@ public class Unescaper {
 		}else{
 			Timer.start("escape");
 			System.out.println("Processing dir: " + din);
+			ExecutorService pool = Executors.newFixedThreadPool(num_workers);
 			for (String f : kids) {
-				String path = din + "/" + f;
-				System.out.println(path);
-				String pout = dout + "/" + (f.split("\\."))[0] + ".conll";
-				unescape(path, pout);
+				final String path = din + "/" + f;
+				final String pout = dout + "/" + (f.split("\\."))[0] +
+						(compress_output ? ".conll.gz" : ".conll");
+				pool.execute(new Runnable() {
+					public void run() {
+						System.out.println(path);
+						long t0 = Timer.now();
+						copy().unescape(path, pout);
+						Timer.recordSince("file", t0);
+					}
+				});
+			}
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
 		    System.out.println("done.");
+			Timer.printStats();
 			Timer.printElapsed("escape");
 		}
-		
+
 	}
-	
-	
+
+
 
 	public static void mass(String[] args) {
+		mass(args, new Unescaper());
+	}
+
+	protected static void mass(String[] args, Unescaper unesc) {
 		final String HDFS_URI = "hdfs://d-101.cs.wisc.edu:9000/";
 		final String HDFS_DIR_OUT = "/GigawordConll/";
 		if (args.length == 0) {
@@ -140,13 +240,12 @@ public class Unescaper {
 		String[] parts = fin.split("/");
 		String fname = parts[parts.length-1].split("\\.")[0] + ".conll";
 		String fout = workDir + fname;
-		
+
 		Configuration conf = new Configuration();
 		conf.set("fs.default.name", HDFS_URI);
 		conf.set("dfs.replication", "2");
 		try {
 			FileSystem dfs = FileSystem.get(conf);
-			Unescaper unesc = new Unescaper();
 			System.out.println("Processing " + fin);
 			unesc.unescape(fin, fout);
 			new File(fout).deleteOnExit();
@@ -158,23 +257,23 @@ public class Unescaper {
 		}
 		System.out.println("DONE!");
 	}
-	
-	
+
+
 	public static void main(String[] args) {
 		Unescaper unesc = new Unescaper();
 		//mass(args);
-		
+
 		/*
 		String din = "/p/hazy/condor_2/ner/";
 		String dout = "/scratch.1/mr/GigawordConll";
 		unesc.unescapeDir(din, dout);
 		*/
-		
-		
+
+
 		String fin = args[0];
 		String fout = args[1];
 		unesc.unescape(fin, fout);
-		
+
 	}
 
 }
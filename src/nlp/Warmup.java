@@ -0,0 +1,95 @@
+package nlp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import util.IO;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+
+/**
+ * Runs a pipeline over a small corpus before the real input, so that a
+ * fresh JVM loads its classes and compiles the hot paths up front
+ * rather than on the first real documents. -Dwarmup names the corpus,
+ * in runNER's <FILENAME ...> input format; "bundled" is the sample
+ * corpus packed in the jar (nlp/warmup.txt). It is run -Dwarmup.rounds
+ * times (default 3). Without -Dwarmup nothing is run. On a LazyPipeline
+ * this also loads every model the sample documents reach.
+ */
+public class Warmup {
+
+	public static final String BUNDLED = "bundled";
+
+	private static final Pattern DOC = Pattern.compile("<FILENAME[^>]*>.*?</FILENAME>", Pattern.DOTALL);
+
+	public static boolean enabled() {
+		String source = System.getProperty("warmup");
+		return source != null && source.length() > 0;
+	}
+
+	/**
+	 * Annotates the -Dwarmup corpus and reports how long it took; returns
+	 * the seconds spent, or 0 if there was nothing to run.
+	 */
+	public static double run(AnnotationPipeline pipeline) {
+		if (!enabled()) return 0;
+		String source = System.getProperty("warmup");
+		int rounds = Math.max(1, Integer.getInteger("warmup.rounds", 3));
+		List<String> docs;
+		try {
+			docs = documents(source);
+		} catch (IOException e) {
+			System.err.println("Warm-up corpus " + source + " unreadable, skipping warm-up: " + e);
+			return 0;
+		}
+		if (docs.isEmpty()) return 0;
+		long t0 = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String doc : docs) {
+				pipeline.annotate(new Annotation(doc));
+			}
+		}
+		double secs = (System.nanoTime() - t0) / 1e9;
+		System.err.println(String.format("Warm-up: %d documents x %d rounds in %.2f sec",
+				docs.size(), rounds, secs));
+		return secs;
+	}
+
+	/**
+	 * The documents of a corpus file, or of the bundled corpus.
+	 */
+	public static List<String> documents(String source) throws IOException {
+		BufferedReader reader;
+		if (source.equals(BUNDLED)) {
+			InputStream in = Warmup.class.getResourceAsStream("warmup.txt");
+			if (in == null) throw new IOException("nlp/warmup.txt not in the class path");
+			reader = new BufferedReader(new InputStreamReader(in, IO.UTF8));
+		} else {
+			reader = IO.openReader(source);
+		}
+		StringBuilder sb = new StringBuilder();
+		try {
+			char[] buf = new char[8192];
+			int n;
+			while ((n = reader.read(buf)) > 0) {
+				sb.append(buf, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		List<String> docs = new ArrayList<String>();
+		Matcher m = DOC.matcher(sb);
+		while (m.find()) {
+			docs.add(m.group());
+		}
+		return docs;
+	}
+
+}
@@ -1,63 +1,128 @@
 package nlp;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
+import util.ByteSlice;
+import util.IO;
+import util.RecordReader;
+import util.Timer;
+
+/**
+ * Reassembles sentences from the tagged wiki dump, which has one token per
+ * line, a blank line after each sentence and a "1\t&lt;DOC id=..." line at
+ * the start of each document. Each sentence becomes one line
+ *
+ *   docid \t sentid \t tokens \t spans
+ *
+ * where tokens are space separated (spaces inside a token become '_') and
+ * spans lists the named-entity runs as TYPE:begin:end, with zero-based
+ * token indices and end exclusive.
+ */
 public class Wiki {
 
     private static final Pattern patternDocHead = Pattern.compile("<DocID>(.*?)</DocID>");
-	
-    private String tidy(ArrayList<String> toks, String docid, int sentid) {
-    	StringBuilder sb = new StringBuilder();
-    
-    	return sb.toString();
+
+    // Column of the token text and of the NER tag (SimpleTagging extra columns)
+    private int word_col = 1;
+    private int ner_col = 4;
+    private int num_workers = Runtime.getRuntime().availableProcessors();
+
+    public void setNerColumn(int col) {
+    	ner_col = col;
+    }
+
+    public void setNumWorkers(int n) {
+    	num_workers = n;
+    }
+
+    /**
+     * Returns column col of a tab-separated line, or null if the line has
+     * fewer columns.
+     */
+    private static ByteSlice column(ByteSlice line, int col) {
+    	int from = 0;
+    	for (int i = 0; i < col; i++) {
+    		from = line.indexOf('\t', from) + 1;
+    		if (from == 0) return null;
+    	}
+    	int to = line.indexOf('\t', from);
+    	return line.subSequence(from, to < 0 ? line.length() : to);
     }
-    
- 
+
+	/**
+	 * Transforms one dump file. Lines are scanned as bytes and the token
+	 * bytes copied to the output without decoding them from UTF-8.
+	 */
 	public void transform(String fin, String fout) {
 		try {
-	    BufferedReader is = null;
-	    if (!fin.endsWith(".gz")) {
-	    	is = new BufferedReader(new FileReader(fin));
-	    } else {
-		    FileInputStream fis = new FileInputStream(fin);
-		    GZIPInputStream gzis = new GZIPInputStream(fis);
-		    InputStreamReader xover = new InputStreamReader(gzis);
-		    is = new BufferedReader(xover);
-	    }
+	    RecordReader is = RecordReader.open(fin);
+		BufferedWriter os = IO.openRawWriter(fout);
 
-		BufferedWriter os = new BufferedWriter(new FileWriter(fout));
-	    
-	    String line = is.readLine();
-	    ArrayList<String> toks = new ArrayList<String>();
+	    // Buffers for the current sentence, reused across sentences
+	    StringBuilder toks = new StringBuilder();
+	    StringBuilder spans = new StringBuilder();
+	    String spanType = null;
+	    int spanBegin = 0;
+	    int numToks = 0;
 	    String docid = "NA";
 	    int sentid = 0;
+	    Matcher m = patternDocHead.matcher("");
+	    ByteSlice line = is.next();
 	    while (line != null) {
 	    	if (line.startsWith("1\t<DOC id=")) {
-	    		Matcher m = patternDocHead.matcher(line);
+	    		m.reset(line);
 	    		if (m.find()) {
 	    			docid = m.group(1);
 	    		}
 	    		sentid = 0;
-	    		toks = new ArrayList<String>();
+	    		toks.setLength(0);
+	    		spans.setLength(0);
+	    		spanType = null;
+	    		numToks = 0;
 	    	} else if (line.length() == 0) {
 	    		sentid ++;
-	    		if (!toks.isEmpty()) {
-	    			String s = tidy(toks, docid, sentid);
-	    			os.write(s + "\n");
+	    		if (numToks > 0) {
+	    			if (spanType != null) appendSpan(spans, spanType, spanBegin, numToks);
+	    			writeSentence(os, docid, sentid, toks, spans);
 	    		}
+	    		toks.setLength(0);
+	    		spans.setLength(0);
+	    		spanType = null;
+	    		numToks = 0;
 	    	} else {
-	    		toks.add(line);
+	    		ByteSlice word = column(line, word_col);
+	    		ByteSlice ne = column(line, ner_col);
+	    		if (ne != null && ne.contentEquals("O")) ne = null;
+	    		if (spanType != null && (ne == null || !ne.contentEquals(spanType))) {
+	    			appendSpan(spans, spanType, spanBegin, numToks);
+	    			spanType = null;
+	    		}
+	    		if (ne != null && spanType == null) {
+	    			spanType = ne.toString();
+	    			spanBegin = numToks;
+	    		}
+	    		if (numToks > 0) toks.append(' ');
+	    		if (word != null) {
+	    			for (int i = 0; i < word.length(); i++) {
+	    				char ch = word.charAt(i);
+	    				toks.append(ch == ' ' ? '_' : ch);
+	    			}
+	    		}
+	    		++ numToks;
 	    	}
-	    	line = is.readLine();
+	    	line = is.next();
+	    }
+	    // The last sentence may not be followed by a blank line
+	    if (numToks > 0) {
+	    	if (spanType != null) appendSpan(spans, spanType, spanBegin, numToks);
+	    	writeSentence(os, docid, sentid + 1, toks, spans);
 	    }
 		is.close();
 		os.close();
@@ -65,10 +130,73 @@ public class Wiki {
 			e.printStackTrace();
 		}
 	}
-	
-	
-	
+
+	private static void appendSpan(StringBuilder spans, String type, int begin, int end) {
+		if (spans.length() > 0) spans.append(' ');
+		spans.append(type).append(':').append(begin).append(':').append(end);
+	}
+
+	private static void writeSentence(BufferedWriter os, String docid, int sentid,
+			StringBuilder toks, StringBuilder spans) throws IOException {
+		os.write(docid);
+		os.write('\t');
+		os.write(Integer.toString(sentid));
+		os.write('\t');
+		os.append(toks);
+		os.write('\t');
+		os.append(spans);
+		os.write('\n');
+	}
+
+	/**
+	 * Transforms every dump file in din into dout, num_workers files at a time.
+	 */
+	public void transformDir(String din, String dout) {
+		File dir = new File(din);
+		String[] kids = dir.list();
+		if(kids == null){
+			System.out.println("Specified dir doesn't exist: " + din);
+			System.exit(0);
+		}else{
+			Timer.start("wiki");
+			System.out.println("Processing dir: " + din);
+			ExecutorService pool = Executors.newFixedThreadPool(num_workers);
+			for (String f : kids) {
+				final String path = din + "/" + f;
+				final String pout = dout + "/" + (f.split("\\."))[0] + ".sent.gz";
+				pool.execute(new Runnable() {
+					public void run() {
+						System.out.println(path);
+						transform(path, pout);
+					}
+				});
+			}
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		    System.out.println("done.");
+			Timer.printElapsed("wiki");
+		}
+	}
+
+
 	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("args: input_file|input_dir output_file|output_dir [num_workers]");
+			System.exit(0);
+		}
+		Wiki wiki = new Wiki();
+		if (args.length > 2) {
+			wiki.setNumWorkers(Integer.parseInt(args[2]));
+		}
+		if (new File(args[0]).isDirectory()) {
+			wiki.transformDir(args[0], args[1]);
+		} else {
+			wiki.transform(args[0], args[1]);
+		}
 	}
 
 }
@@ -0,0 +1,128 @@
+package nlp;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import edu.stanford.nlp.dcoref.CorefChain;
+import edu.stanford.nlp.dcoref.CorefChain.CorefMention;
+import edu.stanford.nlp.dcoref.CorefCoreAnnotations.CorefChainAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Runs dcoref on a sliding window of sentences instead of on the whole
+ * document, so that its cost grows linearly with the document length.
+ * Windows of size sentences overlap by overlap sentences; a chain with a
+ * mention in the overlap continues the cluster that mention got in the
+ * window before, and only the mentions in the overlap are carried
+ * forward. Chains are not merged back into earlier windows, so two
+ * clusters that only meet later stay apart.
+ *
+ * Writes the same corefID/mentionID columns as runNER does with whole
+ * document coref.
+ */
+public class WindowedCoref {
+
+	// Loaded on the first window if dcoref is in -Dlazy.annotators
+	private Annotator annotator = null;
+	private Properties props = null;
+	private int size;
+	private int overlap;
+
+	private int nextCluster = 1;
+	private int nextMention = 0;
+	// (sentence, start, end) of the mentions in the current overlap ->
+	// (cluster, mention id)
+	private Long2LongOpenHashMap active = new Long2LongOpenHashMap();
+
+	/**
+	 * @param props the dcoref.* properties of the pipeline
+	 * @param size sentences per window
+	 * @param overlap sentences shared by consecutive windows, less than size
+	 */
+	public WindowedCoref(Properties props, int size, int overlap) {
+		this.props = props;
+		if (!LazyPipeline.lazyAnnotators().contains("dcoref")) {
+			annotator = LazyPipeline.get("dcoref", props, true);
+		}
+		this.size = Math.max(1, size);
+		this.overlap = Math.max(0, Math.min(overlap, this.size - 1));
+		active.defaultReturnValue(-1);
+	}
+
+	/**
+	 * Resets the cluster and mention ids for a new document.
+	 */
+	public void startDocument() {
+		nextCluster = 1;
+		nextMention = 0;
+		active.clear();
+	}
+
+	/**
+	 * Resolves the given sentences, which are sentences sentBase.. of doc,
+	 * and sets the coref ids of their tokens. Ids keep counting across
+	 * calls within a document, e.g. for the pieces of a split document,
+	 * but chains do not cross calls.
+	 */
+	public void resolve(List<CoreMap> sentences, TokenBuffer doc, int sentBase) {
+		active.clear();
+		int step = size - overlap;
+		for (int from = 0; from < sentences.size(); from += step) {
+			int to = Math.min(from + size, sentences.size());
+			Annotation window = new Annotation("");
+			window.set(SentencesAnnotation.class, sentences.subList(from, to));
+			if (annotator == null) annotator = LazyPipeline.get("dcoref", props, true);
+			annotator.annotate(window);
+			Map<Integer, CorefChain> graph = window.get(CorefChainAnnotation.class);
+			for (CorefChain chain : graph.values()) {
+				List<CorefMention> mentions = chain.getMentionsInTextualOrder();
+				int cluster = -1;
+				for (CorefMention cm : mentions) {
+					long seen = active.get(key(sentBase + from + cm.sentNum - 1, cm.startIndex, cm.endIndex));
+					if (seen >= 0) {
+						cluster = (int) (seen >>> 32);
+						break;
+					}
+				}
+				if (cluster < 0) cluster = nextCluster++;
+				for (CorefMention cm : mentions) {
+					int sent = sentBase + from + cm.sentNum - 1;
+					long k = key(sent, cm.startIndex, cm.endIndex);
+					if (active.get(k) >= 0) continue;
+					int mention = nextMention++;
+					// word indexes in a CorefMention are one-based
+					int first = doc.sentenceStart(sent) - 1;
+					for (int w = cm.startIndex; w < cm.endIndex; w++) {
+						doc.setCoref(first + w, cluster, mention);
+					}
+					active.put(k, ((long) cluster << 32) | mention);
+				}
+			}
+			if (to == sentences.size()) break;
+			forgetBefore(sentBase + from + step);
+		}
+	}
+
+	/**
+	 * Drops the mentions in sentences before sent, which no later window
+	 * sees.
+	 */
+	private void forgetBefore(int sent) {
+		ObjectIterator<Long2LongMap.Entry> it = active.long2LongEntrySet().iterator();
+		while (it.hasNext()) {
+			if ((it.next().getLongKey() >>> 40) < sent) it.remove();
+		}
+	}
+
+	private static long key(int sent, int start, int end) {
+		return ((long) sent << 40) | ((long) start << 20) | end;
+	}
+}
@@ -4,7 +4,6 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
@@ -18,8 +17,6 @@ import java.util.List;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.tika.config.TikaConfig;
@@ -27,8 +24,62 @@ import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.utils.ParseUtils;
 
+import util.IO;
+import util.ParallelGzipOutputStream;
+
 public class cleanHTML {
 	
+    private static final Pattern doubleNN = Pattern.compile("(\n\\s*\n\\s*)+", Pattern.DOTALL|Pattern.MULTILINE);
+    private static final Pattern blanks = Pattern.compile("[ |\t]+");
+    private static final Pattern leadingBlank = Pattern.compile("^[ |\t]s");
+    private static final Pattern trailingBlank = Pattern.compile("[ |\t]$");
+
+	/**
+	 * Normalizes the whitespace of text extracted by Tika and blanks out
+	 * boilerplate: runs of more than five short lines, and short lines
+	 * between two empty ones. Returns the text split into lines.
+	 */
+	public static String[] cleanText(String txt) {
+		txt = doubleNN.matcher(txt).replaceAll("\n\n");
+		txt = blanks.matcher(txt).replaceAll(" ");
+		txt = leadingBlank.matcher(txt).replaceAll("");
+		txt = trailingBlank.matcher(txt).replaceAll("");
+		
+		String[] ss = txt.split("\n");
+		
+		for(int i=0;i<ss.length;i++){
+			if(ss[i].length() > 30){
+				continue;
+			}
+			int j;
+			for(j=i+1;j<ss.length;j++){
+				if(ss[j].length() > 30){
+					break;
+				}
+			}
+			j --;
+			if(j-i+1 > 5){
+				for(int w=i;w<j+1;w++){
+					ss[w] = "";
+				}
+			}
+			i = j;
+		}
+		
+		for(int i=0;i<ss.length;i++){
+			if(ss[i].length() > 30){
+				continue;
+			}
+			if(i == 0 || i == ss.length-1){
+				continue;
+			}
+			if(ss[i-1].trim().length() == 0 && ss[i+1].trim().length() == 0){
+				ss[i] = "";
+			}
+		}
+		return ss;
+	}
+	
 	static public void main(String[] args) throws IOException{
 
 	    Properties props = new Properties();
@@ -46,13 +97,13 @@ public class cleanHTML {
 	    
 	 //   BufferedReader br = new BufferedReader(new FileReader(filename));
 	   
-	    FileInputStream fin = new FileInputStream(filename);
-	    GZIPInputStream gzis = new GZIPInputStream(fin);
-	    InputStreamReader xover = new InputStreamReader(gzis);
+	    // inflated on a read-ahead thread
+	    InputStream fin = IO.openInputStream(filename);
+	    InputStreamReader xover = new InputStreamReader(fin);
 	    BufferedReader is = new BufferedReader(xover);
 	    
 	    FileOutputStream fout = new FileOutputStream(outfilename);
-	    GZIPOutputStream gzos = new GZIPOutputStream(fout);
+	    ParallelGzipOutputStream gzos = new ParallelGzipOutputStream(fout);
 	    OutputStreamWriter xover2 = new OutputStreamWriter(gzos);
 	    BufferedWriter os = new BufferedWriter(xover2);
 	    
@@ -67,9 +118,6 @@ public class cleanHTML {
 	    Pattern forKeys = Pattern.compile("^(.*?<.*?>.*?)<", Pattern.DOTALL|Pattern.MULTILINE);
 		Matcher n = forKeys.matcher("");
 		
-	    Pattern doubleNN = Pattern.compile("(\n\\s*\n\\s*)+", Pattern.DOTALL|Pattern.MULTILINE);
-		Matcher nn = doubleNN.matcher("");
-		
 	    Pattern singleN = Pattern.compile("\n", Pattern.DOTALL|Pattern.MULTILINE);
 		Matcher nnnn = singleN.matcher("");
 	    
@@ -109,45 +157,7 @@ public class cleanHTML {
 		    		String txt = "";
 		    		try{
 		    			txt = ParseUtils.getStringContent(new File("testhtml.html"), tc);
-		    			nn.reset(txt);
-			    		txt = nn.replaceAll("\n\n");
-			    		txt = txt.replaceAll("[ |\t]+", " ");
-			    		txt = txt.replaceAll("^[ |\t]s", "");
-			    		txt = txt.replaceAll("[ |\t]$", "");
-			    		
-			    		
-			    		String[] ss = txt.split("\n");
-			    		
-			    		for(int i=0;i<ss.length;i++){
-			    			if(ss[i].length() > 30){
-			    				continue;
-			    			}
-			    			int j;
-			    			for(j=i+1;j<ss.length;j++){
-			    				if(ss[j].length() > 30){
-			    					break;
-			    				}
-			    			}
-			    			j --;
-			    			if(j-i+1 > 5){
-			    				for(int w=i;w<j+1;w++){
-			    					ss[w] = "";
-			    				}
-			    			}
-			    			i = j;
-			    		}
-			    		
-			    		for(int i=0;i<ss.length;i++){
-			    			if(ss[i].length() > 30){
-			    				continue;
-			    			}
-			    			if(i == 0 || i == ss.length-1){
-			    				continue;
-			    			}
-			    			if(ss[i-1].trim().length() == 0 && ss[i+1].trim().length() == 0){
-			    				ss[i] = "";
-			    			}
-			    		}
+		    			String[] ss = cleanText(txt);
 			    		
 			    		System.out.println("<FILENAME " + docid + "><p>");
 			    		boolean isprevempty = false;
@@ -9,29 +9,33 @@ package nlp;
  * the GPL, because Stanford CoreNLP is released under the GPL.
  */
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.InputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+
+import util.AsyncWriter;
+import util.ByteSlice;
+import util.IO;
+import util.MappedRecordReader;
+import util.ParallelGzipOutputStream;
+import util.RecordReader;
+import util.StreamRecordReader;
 
 import org.apache.tika.exception.TikaException;
 
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
 import edu.stanford.nlp.util.CoreMap;
 
 import edu.stanford.nlp.trees.semgraph.SemanticGraph;
@@ -50,60 +54,6 @@ import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.trees.TreeCoreAnnotations.TreeAnnotation;
 
-/** 
- * Convenience class for organizing the data coming out of CoreNLP
- */
-class myWord{
-
-	public String word;
-	public String pos;
-	public String lemma;
-	public String ne;
-	
-	public int offset1 = 0;
-	public int offset2 = 0;
-	
-	public int corefID;
-        public int mentionID;
-	
-	public int dep_partent = 0;
-	public String dep_class = "_";
-	
-    public myWord(String _word, String _pos, String _lemma, String _ne, int _mentionID, int _corefID){
-		word = _word;
-		pos = _pos;
-		lemma = _lemma;
-		ne = _ne;
-		
-		mentionID = _mentionID;
-		corefID = _corefID;
-	}
-	
-}
-
-/** 
- * Convenience class for organizing the data coming out of CoreNLP
- */
-class mySentence{
-	ArrayList<myWord> words = new ArrayList<myWord>();
-	
-	public void pushWord(myWord word){
-		words.add(word);
-	}
-}
-
-/** 
- * Convenience class for organizing the data coming out of CoreNLP
- */
-class myDocument{
-	ArrayList<mySentence> sentences = new ArrayList<mySentence>();
-	
-	public void pushSentence(mySentence sent){
-		sentences.add(sent);
-	}
-}
-
-
 /** 
  * Adapted from the example wrapper provided by Stanford CoreNLP.
  * 
@@ -113,17 +63,22 @@ class myDocument{
  */
 public class runNER extends SimpleFunction {
 	private static boolean silent = true;
-	private static boolean input_compressed = false;
 	private static boolean compress_output = false;
 	
 	//public static String doNER(String )
 
     private Pattern patternDocHead = Pattern.compile("<FILENAME (.*?)>");
     
-    private StanfordCoreNLP pipeline = null;
+    private AnnotationPipeline pipeline = null;
 
     /**
-     * main function called when running java -jar runNER.jar <input> <output>
+     * main function called when running java -jar runNER.jar <input> <output> [owpl|conll|escaped]
+     * With -Ddoc.max_chars=N, longer documents are split at paragraph or
+     * sentence boundaries and annotated piece by piece. With
+     * -Ddcoref.window=N, coref is resolved on sliding windows of N
+     * sentences (see WindowedCoref). -Dwarmup runs a sample corpus
+     * first (see Warmup). -Dmodel.cache keeps decompressed models in a
+     * local directory (see ModelCache).
      */	
     static public void main(String[] args) throws IOException, TikaException{
 	if (!silent) System.err.println("Starting NER...");
@@ -137,44 +92,109 @@ public class runNER extends SimpleFunction {
     	props.setProperty("tokenize.options", "ptb3Escaping=false");
 	// this appears to get ignored? ,normalizeAmpersandEntity=false");
 
-	// This appeared to have no effect on speeding up dcoref
+	// This appeared to have no effect on speeding up dcoref (see
+	// dcoref.window below for what does)
 	//props.setProperty("dcoref.maxdist", "1");
+
+	// documents over -Ddoc.max_chars chars (default 0, never) are
+	// annotated in pieces; coref chains do not cross pieces
+	DocumentSplitter splitter = new DocumentSplitter(Integer.getInteger("doc.max_chars", 0));
+	if (splitter.enabled()) {
+	    // a piece may close tags it did not open
+	    props.setProperty("clean.allowflawedxml", "true");
+	}
     	
-	StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+	// with -Ddcoref.window=N, coref runs on windows of N sentences
+	// overlapping by -Ddcoref.overlap (default N/4) instead of on the
+	// whole document, which bounds its cost on long documents
+	int corefWindow = Integer.getInteger("dcoref.window", 0);
+	WindowedCoref coref = null;
+	if (corefWindow > 0) {
+	    props.put("annotators", "tokenize, cleanxml, ssplit, pos, lemma, ner, parse");
+	}
+	
+	// with -Dmodel.cache=DIR, models are loaded from decompressed copies
+	ModelCache.apply(props);
+	// pos, ner, parse and dcoref load their models on the first document
+	// that reaches them (see LazyPipeline)
+	AnnotationPipeline pipeline = new LazyPipeline(props);
+	if (corefWindow > 0) {
+	    coref = new WindowedCoref(props, corefWindow, Integer.getInteger("dcoref.overlap", corefWindow / 4));
+	}
+	// with -Dwarmup=bundled (or a corpus file), a few sample documents
+	// are annotated first, so the real input starts on compiled code
+	Warmup.run(pipeline);
 	
 	String filename = args[0];
 	String outfilename = args[1];
 	
-	BufferedReader is = null;
-	if (!input_compressed) {
-	    is = new BufferedReader(new FileReader(filename));
+	// after each complete document the input offset and output length
+	// are checkpointed, and a rerun resumes from there; a gzipped
+	// output cannot be truncated, so it is always written from scratch
+	DocCheckpoint ckpt = null;
+	boolean resume = false;
+	if (!compress_output) {
+	    ckpt = new DocCheckpoint(filename, outfilename);
+	    resume = ckpt.recover();
+	    if (resume) {
+		System.err.println("Resuming at input byte " + ckpt.inputOffset()
+				   + ", output byte " + ckpt.outputLength());
+	    }
+	}
+	long inputBase = resume ? ckpt.inputOffset() : 0;
+	
+	// lines are read as bytes so that the input offset is known
+	RecordReader is = null;
+	if (!IO.isGzipFile(new File(filename))) {
+	    is = new MappedRecordReader(new File(filename), inputBase);
 	} else {
-	    FileInputStream fin = new FileInputStream(filename);
-	    GZIPInputStream gzis = new GZIPInputStream(fin);
-	    InputStreamReader xover = new InputStreamReader(gzis);
-	    is = new BufferedReader(xover);
+	    // inflated on a read-ahead thread
+	    InputStream fin = IO.openInputStream(filename);
+	    long skipped = 0;
+	    while (skipped < inputBase) {
+		long n = fin.skip(inputBase - skipped);
+		if (n <= 0) break;
+		skipped += n;
+	    }
+	    is = new StreamRecordReader(fin, IO.BUFFER_SIZE, skipped);
 	}
 	
-	BufferedWriter os = null;
+	String format = "owpl";
+	if (args.length > 2) {
+	    format = args[2];
+	}
+	
+	// the output is written on its own thread, so that the annotation
+	// thread does not wait on encoding, gzip or the disk
+	AsyncWriter os = null;
 	if (!compress_output) {
-	    os = new BufferedWriter(new FileWriter(outfilename));
+	    os = new AsyncWriter(new OutputStreamWriter(new BufferedOutputStream(
+		new FileOutputStream(outfilename, resume), IO.BUFFER_SIZE)));
 	} else {
 	    FileOutputStream fout = new FileOutputStream(outfilename);
-	    GZIPOutputStream gzos = new GZIPOutputStream(fout);
-	    OutputStreamWriter xover2 = new OutputStreamWriter(gzos);
-	    os = new BufferedWriter(xover2);
+	    ParallelGzipOutputStream gzos = new ParallelGzipOutputStream(fout);
+	    os = new AsyncWriter(new OutputStreamWriter(gzos));
 	}
+	final DocCheckpoint checkpoint = ckpt;
+	final File outFile = new File(outfilename);
+	
+	AnnotationSink sink = openSink(format, os, !resume);
+	String[] cols = new String[10];
+	// one token buffer for all documents
+	TokenBuffer doc = new TokenBuffer(LabelTable.GLOBAL);
+	int[] labels = new int[10];	// ids of the POS, NER and relation columns
+	Arrays.fill(labels, -1);
 	
 	String content = "";
 	String currentStream_Id = null;
 	String line;
+	ByteSlice rec;
 	Pattern p = Pattern.compile("<FILENAME stream_id=\"(.*?)\">");
 
-	os.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root>");
-
 	// read in the <FILENAME ...>TEXT</FILENAME> input and
 	// generate output with OWPL between SENT tags.
-	while((line = is.readLine()) != null){	// for each line
+	while((rec = is.next()) != null){	// for each line
+	    line = rec.decode();
 	    Matcher m = p.matcher(line);	// is it a <FILENAME...> line
 	    if(m.find()){
 		if (!silent) System.err.println(line);
@@ -191,136 +211,113 @@ public class runNER extends SimpleFunction {
 		//content = content.replaceAll(" [^<>]*?>", ">");	
 		String stream_id = currentStream_Id;	// set doc-id
 		
-		Annotation document = new Annotation(content);	
-		pipeline.annotate(document);	// run Stanford CoreNLP
-		List<CoreMap> sentences = document.get(SentencesAnnotation.class);	// get set of sentences
+		doc.clear();	// reuse the token arrays of the last document
+		if (coref != null) coref.startDocument();
+		int mentionID = 0;
+		int clusterBase = 0;
 		
-		myDocument mydoc = new myDocument();	// object for a document object
+		// a long document is annotated in pieces, whose sentences and
+		// token offsets are stitched back into one document
+		for(DocumentSplitter.Piece piece : splitter.split(content)) {
+		    Annotation document = new Annotation(piece.text);	
+		    pipeline.annotate(document);	// run Stanford CoreNLP
+		    int sentBase = doc.numSentences();
+		    List<CoreMap> sentences = document.get(SentencesAnnotation.class);	// get set of sentences
 		
-		//int sentid = 0;
-		for(CoreMap sentence: sentences) {	// for each sentence
+		    for(CoreMap sentence: sentences) {	// for each sentence
+			doc.startSentence();
+			int first = doc.size();	// index of the sentence's first token
 		    
-		    mySentence mysent = new mySentence();	// object for a sentence output
+			for (CoreLabel token: sentence.get(TokensAnnotation.class)) {	// for each word
+			    // mentionID and corefID start out as -1
+			    doc.addToken(token.get(TextAnnotation.class),
+					 token.get(PartOfSpeechAnnotation.class),
+					 token.get(LemmaAnnotation.class),
+					 token.get(NamedEntityTagAnnotation.class),
+					 piece.begin + token.beginPosition(),
+					 piece.begin + token.endPosition());
+			}
 		    
-		    //sentid = sentid + 1;			// sentence id
-		    //os.write("<SENT id=\"" + stream_id + "_SENT_" + sentid + "\">\n");
+			SemanticGraph dependencies = sentence.get(CollapsedCCProcessedDependenciesAnnotation.class);  //get parser result
 		    
-		    int wordid = 0;
-		    for (CoreLabel token: sentence.get(TokensAnnotation.class)) {	// for each word
-			++wordid;				// word id
-			String word = token.get(TextAnnotation.class);
-			String pos = token.get(PartOfSpeechAnnotation.class);
-			String lemma = token.get(LemmaAnnotation.class);  
-			String ne = token.get(NamedEntityTagAnnotation.class);	// get annotation   
-			//os.write(wordid + "\t" + word + "\t" + pos + "\t" + ne + "\t" + lemma + "\n");
-
-			// initialize default value of -1 for mentionID and corefID
-			myWord myword = new myWord(word, pos, lemma, ne, -1, -1);	// object for a word output
-
-			myword.offset1 = token.beginPosition();	// set start offset
-			myword.offset2 = token.endPosition();	// set end offset
-			
-			mysent.pushWord(myword);		// add word output to sentence output
-			
+			for(SemanticGraphEdge edge : dependencies.getEdgeSet()){
+			    // set label of the path and parent word of its end word
+			    doc.setDependency(first + edge.getTarget().index()-1, doc.labels().idOf(edge.getRelation()), edge.getSource().index());
+			}
 		    }
-		    //os.write("</SENT>\n\n");
-		    
-		    Tree tree = sentence.get(TreeAnnotation.class);	
-		    
-		    SemanticGraph dependencies = sentence.get(CollapsedCCProcessedDependenciesAnnotation.class);  //get parser result
-		    
-		    for(SemanticGraphEdge edge : dependencies.getEdgeSet()){
-			
-			myWord source = mysent.words.get(edge.getSource().index()-1);	// get start word of a path
-			myWord target = mysent.words.get(edge.getTarget().index()-1);	// get end word of a path
-			
-			target.dep_class = edge.toString();	// set label of the path
-			target.dep_partent = edge.getSource().index();	// set parent word of a word
-			
+		
+		    if (coref != null) {
+			coref.resolve(sentences, doc, sentBase);	// windowed co-reference
+			continue;
 		    }
-		    
-			    	
-		    mydoc.pushSentence(mysent);	// add sentence to a document
-		    
-		    //System.out.println(depden)
-		}
 		
-		Map<Integer, CorefChain> graph = document.get(CorefChainAnnotation.class);	// get co-reference result
-		int mentionID = 0;
-		for(Integer clusterID : graph.keySet()){	// for each cluster
-		    CorefChain chain = graph.get(clusterID);	
+		    Map<Integer, CorefChain> graph = document.get(CorefChainAnnotation.class);	// get co-reference result
+		    if (graph == null) continue;	// no tokens, so coref did not run
+		    int maxClusterID = clusterBase;
+		    for(Map.Entry<Integer, CorefChain> e : graph.entrySet()){	// for each cluster
+			// chains are local to a piece, so their ids are shifted
+			// past those of the pieces before it
+			int corefID = clusterBase + e.getKey();
+			maxClusterID = Math.max(maxClusterID, corefID);
 		    
-		    for(CorefMention cm : chain.getMentionsInTextualOrder()){	// for each mention in the cluster
-			//System.out.println("Coref" + clusterID + ":  SENT-" + cm.sentNum + " " + "WORD-" + cm.startIndex + " ~ WORD-" + cm.endIndex + " " + cm.mentionSpan); 
-			for(int woffset =  cm.startIndex; woffset < cm.endIndex; woffset ++){	// for each word in the mention
+			for(CorefMention cm : e.getValue().getMentionsInTextualOrder()){	// for each mention in the cluster
 			    // sentence numbering inside CorefMention
 			    // and other CoreNLP parts is one-based,
 			    // word offset indexing is also one-based.
-			    // Since arrays in Java and many
-			    // programming languages are zero-based,
-			    // we must subtract one here and we also
-			    // generate zero-based indexing in the
-			    // output.
-			    mydoc.sentences.get(cm.sentNum-1).words.get(woffset-1).corefID = clusterID;		// update the word's cluster ID
-
-			    // mentionID is a unique identifier for
-			    // multi-token mentions that might be in
-			    // the same coref chain
-			    mydoc.sentences.get(cm.sentNum-1).words.get(woffset-1).mentionID = mentionID;	// update the word's mention ID
+			    int first = doc.sentenceStart(sentBase + cm.sentNum-1) - 1;
+			    for(int woffset =  cm.startIndex; woffset < cm.endIndex; woffset ++){	// for each word in the mention
+				// mentionID is a unique identifier for
+				// multi-token mentions that might be in
+				// the same coref chain
+				doc.setCoref(first + woffset, corefID, mentionID);
+			    }
+			    // Only increment mentionID for each
+			    // CorefMention object
+			    mentionID = mentionID + 1;
 			}
-			// Only increment mentionID for each
-			// CorefMention object
-			mentionID = mentionID + 1;
 		    }
+		    clusterBase = maxClusterID;
 		}
 
-		os.write("<FILENAME stream_id=\"" + stream_id + "\">\n");	// output <FILENAME ...>
-		int sentid = 0;	// lets output!!
-		for(mySentence mysent : mydoc.sentences){	// for each sentence
-		    
-		    //os.write("<SENT id=\"" + stream_id + "_SENT_" + sentid + "\">\n");	// output <SENT>
-		    os.write("<SENT id=\"" + sentid + "\">\n");	// output <SENT>
+		sink.startDocument(stream_id);	// output <FILENAME ...>
+		for(int sentid = 0; sentid < doc.numSentences(); sentid++){	// for each sentence
 		    // this causes zero-based sentence indexing in our output
-		    sentid = sentid + 1;
+		    sink.startSentence(sentid);	// output <SENT>
 		    
-		    int wordid = 0;
-		    for(myWord myword : mysent.words){	// for each word, output a line
-			// ensure that we make valid XML output by
-			// escaping these symbols, which should always
-			// appear as isolated tokens
-			if(myword.word.equals("&")) {
-			    myword.word  = "&amp;";
-			    myword.lemma = "&amp;";
-			} else if(myword.word.equals("<")) {
-			    myword.word  = "&lt;";
-			    myword.lemma = "&lt;";
-			} else if(myword.word.equals(">")) {
-			    myword.word  = "&gt;";
-			    myword.lemma = "&gt;";
-			}
-			String output_line = wordid + "\t" + myword.word + 
-				 "\t" + myword.offset1 + ":" + myword.offset2 + 
-				 "\t" + myword.pos + 
-				 "\t" + myword.ne + "\t" + myword.lemma + 
-				 "\t" + myword.dep_class + "\t" + myword.dep_partent +
-				 "\t" + myword.corefID +
-				 "\t" + myword.mentionID + "\n";
-			// make sure we have valid XML... this assumes
-			// that Stanford CoreNLP continues to force
-			// convert &amp; to just "&", so we can
-			// convert it back like this without getting
-			// &amp;amp;
-			//output_line = output_line.replace("&", "&amp;");
-			//output_line = output_line.replace(">", "&gt;");
-			//output_line = output_line.replace("<", "&lt;");
-			os.write(output_line);
-			// use zero-based word indexing
-			wordid = wordid + 1;
+		    int first = doc.sentenceStart(sentid);
+		    int last = doc.sentenceStart(sentid + 1);
+		    for(int i = first; i < last; i++){	// for each word, output a line
+			// the OWPL sink escapes &, < and > to keep the XML valid
+			cols[0] = Integer.toString(i - first);	// use zero-based word indexing
+			cols[1] = doc.word(i);
+			cols[2] = doc.begin(i) + ":" + doc.end(i);
+			cols[3] = doc.pos(i);
+			cols[4] = doc.ne(i);
+			cols[5] = doc.lemma(i);
+			cols[6] = doc.depLabel(i);
+			labels[3] = doc.posId(i);
+			labels[4] = doc.neId(i);
+			labels[6] = doc.depLabelId(i);
+			cols[7] = Integer.toString(doc.depParent(i));
+			cols[8] = Integer.toString(doc.corefID(i));
+			cols[9] = Integer.toString(doc.mentionID(i));
+			sink.token(cols, labels, cols.length);
 		    }
 		    
-		    os.write("</SENT>\n");	// output </SENT>
+		    sink.endSentence();	// output </SENT>
+		}
+		sink.endDocument();
+		if (ckpt != null) {
+		    // committed by the writer thread once the document is on disk
+		    final long inOffset = is.position();
+		    os.endDocument(new AsyncWriter.Mark() {
+			    public void written() throws IOException {
+				checkpoint.commit(inOffset, outFile.length());
+			    }
+			});
+		} else {
+		    os.endDocument();
 		}
-		os.write("</FILENAME>\n");
 		
 		content = "";	// clear "content" such that we can start a new document
 		continue;	// continue, so that we will not get line324 (content += "\n" + line;).
@@ -328,7 +325,31 @@ public class runNER extends SimpleFunction {
 	    content += "\n" + line;	// otherwise, append line to content
 
 	}
-	os.write("</root>");
-	os.close();
+	is.close();
+	sink.close();
+	if (ckpt != null) ckpt.remove();
+    }
+
+    /**
+     * Creates the output sink for the given format: "owpl" (the default
+     * XML), "conll", or "escaped" one-record-per-line sentences.
+     */
+    public static AnnotationSink openSink(String format, Writer os) throws IOException {
+	return openSink(format, os, true);
+    }
+
+    /**
+     * Like openSink(format, os), but with header=false the sink appends
+     * to output that already has its header, e.g. when resuming.
+     */
+    public static AnnotationSink openSink(String format, Writer os, boolean header) throws IOException {
+	if (format.equals("conll")) {
+	    return new ConllSink(os, ConllLayout.OWPL_COLS);
+	} else if (format.equals("escaped")) {
+	    return new EscapedRecordSink(os);
+	} else if (format.equals("owpl")) {
+	    return new OwplXmlSink(os, header);
+	}
+	throw new IllegalArgumentException("Unknown output format: " + format);
     }
 }
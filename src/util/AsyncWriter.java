@@ -0,0 +1,221 @@
+package util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes the wrapped writer on a background thread, so that encoding,
+ * compression and disk stalls do not hold up the caller. Text is
+ * collected in large buffers which the writer thread drains in order;
+ * the caller only waits when all buffers are taken, so at most
+ * numBuffers * bufferSize chars are held. The budget is -Doutput.buffer_mb
+ * (default 16) unless given explicitly.
+ *
+ * endDocument() hands the current buffer over early while the writer
+ * thread is idle. It can carry a Mark that runs on the writer thread
+ * once everything before it, and nothing after, is written and flushed
+ * (e.g. to commit a checkpoint); the buffer is always handed over at a
+ * mark. Not synchronized; use from one thread.
+ */
+public class AsyncWriter extends Writer {
+
+	/**
+	 * Runs on the writer thread after the output up to the
+	 * endDocument() that carried it is flushed.
+	 */
+	public interface Mark {
+		public void written() throws IOException;
+	}
+
+	private static class Buffer {
+		char[] buf;
+		int len = 0;
+		Mark mark = null;
+		boolean flush = false;
+
+		Buffer(int size) {
+			buf = new char[size];
+		}
+	}
+
+	private Writer out = null;
+	private ArrayBlockingQueue<Buffer> full = null;
+	private ArrayBlockingQueue<Buffer> free = null;
+	private Thread drainer = null;
+	// Buffers handed over and not yet written; guarded by this
+	private int inFlight = 0;
+	private volatile IOException error = null;
+	private boolean closed = false;
+
+	private Buffer cur = null;
+
+	public AsyncWriter(Writer out) {
+		this(out, IO.BUFFER_SIZE, Math.max(2, Integer.getInteger("output.buffer_mb", 16) * 1024 * 1024 / 2 / IO.BUFFER_SIZE));
+	}
+
+	public AsyncWriter(Writer out, int bufferSize, int numBuffers) {
+		this.out = out;
+		numBuffers = Math.max(2, numBuffers);
+		full = new ArrayBlockingQueue<Buffer>(numBuffers);
+		free = new ArrayBlockingQueue<Buffer>(numBuffers);
+		for (int i = 1; i < numBuffers; i++) {
+			free.add(new Buffer(bufferSize));
+		}
+		cur = new Buffer(bufferSize);
+		drainer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "async-writer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Background loop: writes out full buffers in order. After an error
+	 * buffers are dropped; the caller sees the error on its next call.
+	 */
+	private void drain() {
+		try {
+			while (true) {
+				Buffer b = full.take();
+				if (error == null) {
+					try {
+						out.write(b.buf, 0, b.len);
+						if (b.flush || b.mark != null) out.flush();
+						if (b.mark != null) b.mark.written();
+					} catch (IOException e) {
+						error = e;
+					} catch (RuntimeException e) {
+						error = new IOException("Writer thread failed", e);
+					}
+				}
+				b.len = 0;
+				b.mark = null;
+				b.flush = false;
+				free.put(b);
+				synchronized (this) {
+					inFlight --;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (error != null) throw error;
+		if (closed) throw new IOException("Writer closed");
+	}
+
+	/**
+	 * Gives the current buffer to the writer thread and takes a free
+	 * one, waiting if there is none.
+	 */
+	private void handOff() throws IOException {
+		synchronized (this) {
+			inFlight ++;
+		}
+		full.add(cur);
+		try {
+			cur = free.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while writing");
+		}
+	}
+
+	public void write(int c) throws IOException {
+		checkError();
+		if (cur.len == cur.buf.length) handOff();
+		cur.buf[cur.len++] = (char) c;
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		checkError();
+		while (len > 0) {
+			if (cur.len == cur.buf.length) handOff();
+			int n = Math.min(len, cur.buf.length - cur.len);
+			System.arraycopy(cbuf, off, cur.buf, cur.len, n);
+			cur.len += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+		checkError();
+		while (len > 0) {
+			if (cur.len == cur.buf.length) handOff();
+			int n = Math.min(len, cur.buf.length - cur.len);
+			str.getChars(off, off + n, cur.buf, cur.len);
+			cur.len += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Marks the end of a document: if the writer thread is idle, it gets
+	 * what has been written so far instead of waiting for a full buffer.
+	 */
+	public void endDocument() throws IOException {
+		endDocument(null);
+	}
+
+	/**
+	 * Like endDocument(); mark runs once the output up to here, and no
+	 * more, is flushed.
+	 */
+	public void endDocument(Mark mark) throws IOException {
+		checkError();
+		if (mark != null) {
+			cur.mark = mark;
+			handOff();
+			return;
+		}
+		boolean idle;
+		synchronized (this) {
+			idle = inFlight == 0;
+		}
+		if (idle && cur.len > 0) handOff();
+	}
+
+	/**
+	 * Waits until everything written so far is written and flushed.
+	 */
+	public void flush() throws IOException {
+		checkError();
+		cur.flush = true;
+		handOff();
+		synchronized (this) {
+			while (inFlight > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while flushing");
+				}
+			}
+		}
+		checkError();
+	}
+
+	public void close() throws IOException {
+		if (closed) return;
+		try {
+			flush();
+		} finally {
+			closed = true;
+			drainer.interrupt();
+			try {
+				drainer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			out.close();
+		}
+	}
+
+}
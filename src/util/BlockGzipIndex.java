@@ -0,0 +1,212 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Block index of a file written by BlockGzipOutputStream: the compressed
+ * offset of each block and the number of the first record in it.
+ */
+public class BlockGzipIndex {
+
+	private static final int SIDECAR_MAGIC = 0x4b494458;
+
+	private long[] offsets = null;
+	private long[] firstRecords = null;
+	private long numRecords = 0;
+
+	public BlockGzipIndex(long[] offsets, long[] firstRecords, long numRecords) {
+		this.offsets = offsets;
+		this.firstRecords = firstRecords;
+		this.numRecords = numRecords;
+	}
+
+	public int numBlocks() {
+		return offsets.length;
+	}
+
+	public long offset(int block) {
+		return offsets[block];
+	}
+
+	public long firstRecord(int block) {
+		return firstRecords[block];
+	}
+
+	public long numRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Returns the last block whose first record is at or before record,
+	 * or -1 if there is none.
+	 */
+	public int blockOf(long record) {
+		int lo = 0, hi = offsets.length - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (firstRecords[mid] <= record) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Offset of the first block whose records all come at or after
+	 * record, or fileLength if there is none.
+	 */
+	public long offsetAtOrAfter(long record, long fileLength) {
+		int b = blockOf(record);
+		if (b >= 0 && firstRecords[b] == record) return offsets[b];
+		return b + 1 < offsets.length ? offsets[b + 1] : fileLength;
+	}
+
+	/**
+	 * Cuts the records into at most parts ranges of about the same number
+	 * of blocks, each starting at a block. Returns the parts + 1 range
+	 * boundaries.
+	 */
+	public long[] splitRanges(int parts) {
+		parts = Math.max(1, Math.min(parts, offsets.length));
+		long[] bounds = new long[parts + 1];
+		for (int i = 0; i < parts; i++) {
+			bounds[i] = offsets.length == 0 ? 0 : firstRecords[(int) ((long) i * offsets.length / parts)];
+		}
+		bounds[parts] = numRecords;
+		return bounds;
+	}
+
+	public static File sidecar(File file) {
+		return new File(file.getPath() + ".idx");
+	}
+
+	/**
+	 * Reads the index of a block gzip file from its sidecar (file.idx) if
+	 * there is one, else from its footer. Returns null if neither exists.
+	 */
+	public static BlockGzipIndex load(File file) throws IOException {
+		File idx = sidecar(file);
+		if (idx.exists()) {
+			return readSidecar(idx);
+		}
+		return readFooter(file);
+	}
+
+	/**
+	 * Writes the index as a sidecar file: magic, number of records, number
+	 * of blocks, then offset and first record of each block.
+	 */
+	public void writeSidecar(File idx) throws IOException {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idx)));
+		os.writeInt(SIDECAR_MAGIC);
+		os.writeLong(numRecords);
+		os.writeInt(offsets.length);
+		for (int i = 0; i < offsets.length; i++) {
+			os.writeLong(offsets[i]);
+			os.writeLong(firstRecords[i]);
+		}
+		os.close();
+	}
+
+	public static BlockGzipIndex readSidecar(File idx) throws IOException {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)));
+		try {
+			if (is.readInt() != SIDECAR_MAGIC) {
+				throw new IOException("Not a block index: " + idx);
+			}
+			long numRecords = is.readLong();
+			int n = is.readInt();
+			long[] offsets = new long[n];
+			long[] firstRecords = new long[n];
+			for (int i = 0; i < n; i++) {
+				offsets[i] = is.readLong();
+				firstRecords[i] = is.readLong();
+			}
+			return new BlockGzipIndex(offsets, firstRecords, numRecords);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads the index from the footer of the file, or returns null if the
+	 * file has none (e.g. plain gzip, or not closed properly).
+	 */
+	public static BlockGzipIndex readFooter(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long len = raf.length();
+			if (len < BlockGzipOutputStream.LOCATOR_SIZE) return null;
+			byte[] loc = new byte[BlockGzipOutputStream.LOCATOR_SIZE];
+			raf.seek(len - loc.length);
+			raf.readFully(loc);
+			byte[] data = subfield(loc, 0, BlockGzipOutputStream.SI_LOCATOR);
+			if (data == null) return null;
+			long indexOffset = getLong(data, 0);
+			long numRecords = getLong(data, 8);
+			if (indexOffset < 0 || indexOffset > len - loc.length) return null;
+			byte[] idx = new byte[(int) (len - loc.length - indexOffset)];
+			raf.seek(indexOffset);
+			raf.readFully(idx);
+
+			int n = 0;
+			long[] offsets = new long[idx.length / BlockGzipOutputStream.ENTRY_SIZE];
+			long[] firstRecords = new long[offsets.length];
+			int pos = 0;
+			while (pos < idx.length) {
+				byte[] entries = subfield(idx, pos, BlockGzipOutputStream.SI_INDEX);
+				if (entries == null) return null;
+				for (int i = 0; i + BlockGzipOutputStream.ENTRY_SIZE <= entries.length;
+						i += BlockGzipOutputStream.ENTRY_SIZE) {
+					offsets[n] = getLong(entries, i);
+					firstRecords[n] = getLong(entries, i + 8);
+					++ n;
+				}
+				// header, XLEN, extra field, empty deflate block, trailer
+				pos += 12 + 4 + entries.length + 2 + 8;
+			}
+			long[] o = new long[n];
+			long[] f = new long[n];
+			System.arraycopy(offsets, 0, o, 0, n);
+			System.arraycopy(firstRecords, 0, f, 0, n);
+			return new BlockGzipIndex(o, f, numRecords);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the payload of the single FEXTRA subfield of the empty gzip
+	 * member at b[pos], or null if it is not of the expected kind.
+	 */
+	private static byte[] subfield(byte[] b, int pos, byte si2) {
+		if (b.length < pos + 16) return null;
+		if (b[pos] != 0x1f || b[pos + 1] != (byte) 0x8b || (b[pos + 3] & 4) == 0) return null;
+		if (b[pos + 12] != BlockGzipOutputStream.SI1 || b[pos + 13] != si2) return null;
+		int len = (b[pos + 14] & 0xff) | ((b[pos + 15] & 0xff) << 8);
+		if (b.length < pos + 16 + len) return null;
+		byte[] data = new byte[len];
+		System.arraycopy(b, pos + 16, data, 0, len);
+		return data;
+	}
+
+	static long getLong(byte[] b, int off) {
+		long v = 0;
+		for (int i = 7; i >= 0; i--) {
+			v = (v << 8) | (b[off + i] & 0xff);
+		}
+		return v;
+	}
+
+}
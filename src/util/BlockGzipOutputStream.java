@@ -0,0 +1,267 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip as a sequence of independent members ("blocks") of about
+ * block_size uncompressed bytes each, cut at record boundaries, so that
+ * readers can start decompressing at any block. Any gzip reader sees the
+ * plain concatenation of the records.
+ *
+ * Call endRecord() after each record. On close, an index of the blocks
+ * (compressed offset and number of the first record of each block) is
+ * appended as empty gzip members that carry the index in their FEXTRA
+ * field, followed by a fixed-size locator member; see BlockGzipIndex.
+ */
+public class BlockGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	// FEXTRA subfield ids of index and locator members
+	static final byte SI1 = 'K';
+	static final byte SI_INDEX = 'I';
+	static final byte SI_LOCATOR = 'L';
+	// Bytes per index entry, and entries per index member
+	static final int ENTRY_SIZE = 16;
+	static final int ENTRIES_PER_MEMBER = 4095;
+	static final int LOCATOR_DATA_SIZE = 16;
+	static final int LOCATOR_SIZE = 10 + 2 + 4 + LOCATOR_DATA_SIZE + 2 + 8;
+
+	private static final byte[] EMPTY_DEFLATE = {0x03, 0x00};
+
+	private OutputStream out = null;
+	private int block_size = DEFAULT_BLOCK_SIZE;
+	private boolean write_index = true;
+
+	private byte[] block = null;
+	private int blockLen = 0;
+	// Read by other threads for the split size when behind an AsyncWriter
+	private volatile long written = 0;
+	private long numRecords = 0;
+	private long blockFirstRecord = 0;
+	// Whether bytes were written since the last endRecord()
+	private boolean recordOpen = false;
+	// Whether the current block starts at a record boundary
+	private boolean blockIndexable = true;
+
+	private long[] offsets = new long[64];
+	private long[] firstRecords = new long[64];
+	private int numBlocks = 0;
+
+	private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private CRC32 crc = new CRC32();
+	private byte[] deflateBuf = new byte[1 << 16];
+
+	public BlockGzipOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+
+	public BlockGzipOutputStream(OutputStream out, int blockSize) {
+		this.out = out;
+		block_size = blockSize;
+		block = new byte[blockSize + (blockSize >> 3)];
+	}
+
+	/**
+	 * Whether to append the block index on close (default true).
+	 */
+	public void setWriteIndex(boolean val) {
+		write_index = val;
+	}
+
+	public void write(int b) throws IOException {
+		ensure(1);
+		block[blockLen++] = (byte) b;
+		recordOpen = true;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensure(len);
+		System.arraycopy(b, off, block, blockLen, len);
+		blockLen += len;
+		recordOpen = true;
+	}
+
+	private void ensure(int len) {
+		if (blockLen == 0) {
+			blockIndexable = !recordOpen;
+		}
+		if (blockLen + len > block.length) {
+			byte[] nb = new byte[Math.max(block.length * 2, blockLen + len)];
+			System.arraycopy(block, 0, nb, 0, blockLen);
+			block = nb;
+		}
+	}
+
+	/**
+	 * Marks the end of a record; the block is compressed once it is full.
+	 */
+	public void endRecord() throws IOException {
+		++ numRecords;
+		recordOpen = false;
+		if (blockLen >= block_size) {
+			finishBlock();
+		}
+	}
+
+	/**
+	 * Compresses and writes out the current block, if any.
+	 */
+	public void finishBlock() throws IOException {
+		if (blockLen == 0) return;
+		if (blockIndexable) {
+			addIndexEntry(written, blockFirstRecord);
+		}
+		writeMember(block, blockLen, null);
+		blockLen = 0;
+		blockFirstRecord = recordOpen ? numRecords + 1 : numRecords;
+	}
+
+	private void addIndexEntry(long offset, long firstRecord) {
+		if (numBlocks == offsets.length) {
+			long[] no = new long[numBlocks * 2];
+			long[] nf = new long[numBlocks * 2];
+			System.arraycopy(offsets, 0, no, 0, numBlocks);
+			System.arraycopy(firstRecords, 0, nf, 0, numBlocks);
+			offsets = no;
+			firstRecords = nf;
+		}
+		offsets[numBlocks] = offset;
+		firstRecords[numBlocks] = firstRecord;
+		++ numBlocks;
+	}
+
+	/**
+	 * Finishes the current block so that everything written so far is on
+	 * disk as complete gzip members.
+	 */
+	public void flush() throws IOException {
+		finishBlock();
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		finishBlock();
+		if (write_index) {
+			writeIndex();
+		}
+		deflater.end();
+		out.close();
+	}
+
+	/** Compressed bytes written to the underlying stream so far. */
+	public long compressedSize() {
+		return written;
+	}
+
+	/** Uncompressed bytes not yet compressed. */
+	public int pendingSize() {
+		return blockLen;
+	}
+
+	public long numRecords() {
+		return numRecords;
+	}
+
+	public long[] blockOffsets() {
+		long[] r = new long[numBlocks];
+		System.arraycopy(offsets, 0, r, 0, numBlocks);
+		return r;
+	}
+
+	public long[] blockFirstRecords() {
+		long[] r = new long[numBlocks];
+		System.arraycopy(firstRecords, 0, r, 0, numBlocks);
+		return r;
+	}
+
+	/** Index of the blocks written so far. */
+	public BlockGzipIndex index() {
+		return new BlockGzipIndex(blockOffsets(), blockFirstRecords(), numRecords);
+	}
+
+	private void writeIndex() throws IOException {
+		long indexOffset = written;
+		byte[] data = new byte[ENTRIES_PER_MEMBER * ENTRY_SIZE];
+		int i = 0;
+		do {
+			int n = Math.min(ENTRIES_PER_MEMBER, numBlocks - i);
+			for (int j = 0; j < n; j++) {
+				putLong(data, j * ENTRY_SIZE, offsets[i + j]);
+				putLong(data, j * ENTRY_SIZE + 8, firstRecords[i + j]);
+			}
+			writeMember(null, 0, subfield(SI_INDEX, data, n * ENTRY_SIZE));
+			i += n;
+		} while (i < numBlocks);
+		byte[] loc = new byte[LOCATOR_DATA_SIZE];
+		putLong(loc, 0, indexOffset);
+		putLong(loc, 8, numRecords);
+		writeMember(null, 0, subfield(SI_LOCATOR, loc, LOCATOR_DATA_SIZE));
+	}
+
+	private static byte[] subfield(byte si2, byte[] data, int len) {
+		byte[] sf = new byte[4 + len];
+		sf[0] = SI1;
+		sf[1] = si2;
+		sf[2] = (byte) len;
+		sf[3] = (byte) (len >>> 8);
+		System.arraycopy(data, 0, sf, 4, len);
+		return sf;
+	}
+
+	static void putLong(byte[] b, int off, long v) {
+		for (int i = 0; i < 8; i++) {
+			b[off + i] = (byte) (v >>> (8 * i));
+		}
+	}
+
+	/**
+	 * Writes one gzip member holding data[0, len), with an optional FEXTRA
+	 * field.
+	 */
+	private void writeMember(byte[] data, int len, byte[] extra) throws IOException {
+		byte[] head = new byte[extra == null ? 10 : 12];
+		head[0] = 0x1f;
+		head[1] = (byte) 0x8b;
+		head[2] = Deflater.DEFLATED;
+		head[3] = (byte) (extra == null ? 0 : 4);
+		head[9] = (byte) 0xff;
+		if (extra != null) {
+			head[10] = (byte) extra.length;
+			head[11] = (byte) (extra.length >>> 8);
+		}
+		out.write(head);
+		written += head.length;
+		if (extra != null) {
+			out.write(extra);
+			written += extra.length;
+		}
+		crc.reset();
+		if (len == 0) {
+			out.write(EMPTY_DEFLATE);
+			written += EMPTY_DEFLATE.length;
+		} else {
+			crc.update(data, 0, len);
+			deflater.reset();
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(deflateBuf);
+				out.write(deflateBuf, 0, n);
+				written += n;
+			}
+		}
+		byte[] trailer = new byte[8];
+		long c = crc.getValue();
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (c >>> (8 * i));
+			trailer[4 + i] = (byte) (len >>> (8 * i));
+		}
+		out.write(trailer);
+		written += trailer.length;
+	}
+
+}
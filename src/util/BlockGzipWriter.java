@@ -0,0 +1,52 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes lines as UTF-8 records of a BlockGzipOutputStream, ending a
+ * record at each '\n', so that record-oriented gzip output can sit
+ * behind a plain Writer such as AsyncWriter.
+ */
+public class BlockGzipWriter extends Writer {
+
+	private BlockGzipOutputStream gz = null;
+	// The record being collected, up to its '\n'
+	private StringBuilder record = new StringBuilder();
+
+	public BlockGzipWriter(BlockGzipOutputStream gz) {
+		this.gz = gz;
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		int start = off;
+		for (int i = off; i < end; i++) {
+			if (cbuf[i] == '\n') {
+				record.append(cbuf, start, i + 1 - start);
+				gz.write(record.toString().getBytes(IO.UTF8));
+				gz.endRecord();
+				record.setLength(0);
+				start = i + 1;
+			}
+		}
+		record.append(cbuf, start, end - start);
+	}
+
+	/**
+	 * Writes out a trailing partial record as is, without ending it.
+	 */
+	public void flush() throws IOException {
+		if (record.length() > 0) {
+			gz.write(record.toString().getBytes(IO.UTF8));
+			record.setLength(0);
+		}
+		gz.flush();
+	}
+
+	public void close() throws IOException {
+		flush();
+		gz.close();
+	}
+
+}
@@ -0,0 +1,129 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a range of bytes in a (heap or mapped) ByteBuffer, without
+ * copying or decoding them.
+ *
+ * As a CharSequence every byte is one char (ISO-8859-1), so code that
+ * scans for ASCII delimiters works on it unchanged, and text built from
+ * it is written back byte for byte by an ISO-8859-1 writer (see
+ * IO.openRawWriter). decode() gives the real UTF-8 text.
+ */
+public class ByteSlice implements CharSequence {
+
+	private ByteBuffer buf = null;
+	private int off = 0;
+	private int len = 0;
+
+	public ByteSlice() {
+	}
+
+	public ByteSlice(ByteBuffer buf, int off, int len) {
+		set(buf, off, len);
+	}
+
+	public ByteSlice set(ByteBuffer buf, int off, int len) {
+		this.buf = buf;
+		this.off = off;
+		this.len = len;
+		return this;
+	}
+
+	public int length() {
+		return len;
+	}
+
+	public char charAt(int i) {
+		return (char) (buf.get(off + i) & 0xff);
+	}
+
+	public byte byteAt(int i) {
+		return buf.get(off + i);
+	}
+
+	public ByteSlice subSequence(int start, int end) {
+		return new ByteSlice(buf, off + start, end - start);
+	}
+
+	/**
+	 * Returns the index of byte b at or after from, or -1.
+	 */
+	public int indexOf(int b, int from) {
+		for (int i = off + from; i < off + len; i++) {
+			if (buf.get(i) == b) return i - off;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares with an ASCII (or ISO-8859-1) prefix.
+	 */
+	public boolean startsWith(String prefix) {
+		if (prefix.length() > len) return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if ((buf.get(off + i) & 0xff) != prefix.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	public boolean contentEquals(CharSequence s) {
+		if (s.length() != len) return false;
+		for (int i = 0; i < len; i++) {
+			if ((buf.get(off + i) & 0xff) != s.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the bytes into dst at dstOff.
+	 */
+	public void copyTo(byte[] dst, int dstOff) {
+		if (buf.hasArray()) {
+			System.arraycopy(buf.array(), buf.arrayOffset() + off, dst, dstOff, len);
+		} else {
+			for (int i = 0; i < len; i++) {
+				dst[dstOff + i] = buf.get(off + i);
+			}
+		}
+	}
+
+	public void writeTo(OutputStream os) throws IOException {
+		if (buf.hasArray()) {
+			os.write(buf.array(), buf.arrayOffset() + off, len);
+		} else {
+			byte[] b = new byte[len];
+			copyTo(b, 0);
+			os.write(b);
+		}
+	}
+
+	/**
+	 * The bytes decoded as UTF-8.
+	 */
+	public String decode() {
+		byte[] b = new byte[len];
+		copyTo(b, 0);
+		try {
+			return new String(b, IO.UTF8);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * One char per byte, consistent with charAt(); use decode() for text.
+	 */
+	public String toString() {
+		char[] cs = new char[len];
+		for (int i = 0; i < len; i++) {
+			cs[i] = (char) (buf.get(off + i) & 0xff);
+		}
+		return new String(cs);
+	}
+
+}
@@ -0,0 +1,44 @@
+package util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the underlying stream.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private volatile long count = 0;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0) ++ count;
+		return b;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0) count += n;
+		return n;
+	}
+
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	public boolean markSupported() {
+		return false;
+	}
+
+}
@@ -0,0 +1,136 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory histogram of non-negative long values (e.g. nanoseconds),
+ * in the style of HdrHistogram: values below 32 are counted exactly, larger
+ * values in 32 linear sub-buckets per power of two, i.e. within about 3%.
+ *
+ * Counters are atomic, so any number of threads can record into one
+ * histogram; a merge() or percentile() during recording sees a slightly
+ * stale but consistent-enough snapshot.
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+
+	private static int bucket(long v) {
+		if (v < SUB_COUNT) return (int) v;
+		int e = 63 - Long.numberOfLeadingZeros(v);
+		int s = (int) (v >>> (e - SUB_BITS)) & (SUB_COUNT - 1);
+		return (e - SUB_BITS + 1) * SUB_COUNT + s;
+	}
+
+	/** Smallest value that falls into the given bucket. */
+	private static long lowerBound(int idx) {
+		if (idx < SUB_COUNT) return idx;
+		int e = idx / SUB_COUNT + SUB_BITS - 1;
+		int s = idx % SUB_COUNT;
+		return ((long) (SUB_COUNT + s)) << (e - SUB_BITS);
+	}
+
+	private static long width(int idx) {
+		if (idx < SUB_COUNT) return 1;
+		int e = idx / SUB_COUNT + SUB_BITS - 1;
+		return 1L << (e - SUB_BITS);
+	}
+
+	public void record(long v) {
+		if (v < 0) v = 0;
+		counts.incrementAndGet(bucket(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		lowerMin(v);
+		raiseMax(v);
+	}
+
+	private void lowerMin(long v) {
+		long m = min.get();
+		while (v < m && !min.compareAndSet(m, v)) {
+			m = min.get();
+		}
+	}
+
+	private void raiseMax(long v) {
+		long m = max.get();
+		while (v > m && !max.compareAndSet(m, v)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one.
+	 */
+	public void merge(Histogram other) {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) counts.addAndGet(i, c);
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		lowerMin(other.min.get());
+		raiseMax(other.max.get());
+	}
+
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	public long count() {
+		return count.get();
+	}
+
+	public long sum() {
+		return sum.get();
+	}
+
+	public long min() {
+		return count.get() == 0 ? 0 : min.get();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the value at the given percentile (0-100), accurate to the
+	 * bucket resolution.
+	 */
+	public long percentile(double p) {
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = (long) Math.ceil(p / 100.0 * n);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				long v = lowerBound(i) + width(i) / 2;
+				return Math.min(Math.max(v, min.get()), max.get());
+			}
+		}
+		return max.get();
+	}
+
+}
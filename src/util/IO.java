@@ -0,0 +1,103 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens corpus files for the converters. Gzip input is recognized by its
+ * magic bytes and inflated on a read-ahead thread; output names ending in
+ * ".gz" are compressed. All text is read and written as UTF-8.
+ */
+public class IO {
+
+	public static final int BUFFER_SIZE = 1 << 20;
+	public static final String UTF8 = "UTF-8";
+	public static final String LATIN1 = "ISO-8859-1";
+
+	/**
+	 * Whether an output name asks for gzip; inputs are checked with
+	 * isGzipFile() instead.
+	 */
+	public static boolean isGzip(String path) {
+		return path.endsWith(".gz");
+	}
+
+	/**
+	 * Whether the file starts with the gzip magic bytes.
+	 */
+	public static boolean isGzipFile(File file) throws IOException {
+		if (!file.isFile()) return false;
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return in.read() == 0x1f && in.read() == 0x8b;
+		} finally {
+			in.close();
+		}
+	}
+
+	public static InputStream openInputStream(String path) throws IOException {
+		return openInputStream(new FileInputStream(path), path);
+	}
+
+	/**
+	 * Wraps an already opened stream on the file path. If the next bytes
+	 * are the gzip magic, the stream is inflated on a read-ahead thread,
+	 * whatever the name of the file.
+	 */
+	public static InputStream openInputStream(InputStream raw, String path) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(raw, 2);
+		int b1 = in.read();
+		int b2 = b1 < 0 ? -1 : in.read();
+		if (b2 >= 0) in.unread(b2);
+		if (b1 >= 0) in.unread(b1);
+		if (b1 == 0x1f && b2 == 0x8b) {
+			return new ReadAheadInputStream(new GZIPInputStream(in, BUFFER_SIZE));
+		}
+		return new BufferedInputStream(in, BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens path for writing; ".gz" output is deflated on the shared
+	 * pool of ParallelGzipOutputStream.
+	 */
+	public static OutputStream openOutputStream(String path) throws IOException {
+		OutputStream out = new FileOutputStream(path);
+		if (isGzip(path)) {
+			out = new ParallelGzipOutputStream(out);
+		}
+		return new BufferedOutputStream(out, BUFFER_SIZE);
+	}
+
+	public static BufferedReader openReader(String path) throws IOException {
+		return new BufferedReader(new InputStreamReader(openInputStream(path), UTF8), BUFFER_SIZE);
+	}
+
+	public static BufferedReader openReader(InputStream raw, String path) throws IOException {
+		return new BufferedReader(new InputStreamReader(openInputStream(raw, path), UTF8), BUFFER_SIZE);
+	}
+
+	public static BufferedWriter openWriter(String path) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(openOutputStream(path), UTF8), BUFFER_SIZE);
+	}
+
+	/**
+	 * A writer that outputs each char as one byte, for text built from
+	 * ByteSlice views, which is then written out as the original bytes.
+	 */
+	public static BufferedWriter openRawWriter(String path) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(openOutputStream(path), LATIN1), BUFFER_SIZE);
+	}
+
+}
@@ -0,0 +1,80 @@
+package util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * RecordReader over a memory-mapped file. The file is mapped in windows of
+ * up to WINDOW bytes; a record crossing a window end is handled by mapping
+ * the next window from the start of that record.
+ */
+public class MappedRecordReader extends RecordReader {
+
+	private static final int WINDOW = 1 << 28;
+
+	private FileInputStream fis = null;
+	private FileChannel channel = null;
+	private long size = 0;
+	private MappedByteBuffer map = null;
+	// File offset of the window, and start of the next record within it
+	private long mapStart = 0;
+	private int start = 0;
+
+	public MappedRecordReader(File file) throws IOException {
+		this(file, 0);
+	}
+
+	/**
+	 * Starts reading at a byte offset, which should be a record start.
+	 */
+	public MappedRecordReader(File file, long offset) throws IOException {
+		fis = new FileInputStream(file);
+		channel = fis.getChannel();
+		size = channel.size();
+		mapStart = offset;
+	}
+
+	public ByteSlice next() throws IOException {
+		int scan = start;
+		while (true) {
+			int lim = map == null ? 0 : map.limit();
+			for (int i = scan; i < lim; i++) {
+				if (map.get(i) == '\n') return emit(i, i + 1);
+			}
+			if (mapStart + lim >= size) {
+				return start < lim ? emit(lim, lim) : null;
+			}
+			// Map the next window from the start of the current record
+			long recStart = mapStart + start;
+			int pending = lim - start;
+			long w = Math.max(WINDOW, 2L * pending);
+			w = Math.min(Math.min(w, size - recStart), Integer.MAX_VALUE);
+			map = channel.map(FileChannel.MapMode.READ_ONLY, recStart, w);
+			mapStart = recStart;
+			start = 0;
+			scan = pending;
+		}
+	}
+
+	private ByteSlice emit(int end, int next) {
+		int e = end;
+		if (e > start && map.get(e - 1) == '\r') --e;
+		line.set(map, start, e - start);
+		start = next;
+		return line;
+	}
+
+	public long position() {
+		return mapStart + start;
+	}
+
+	public void close() throws IOException {
+		map = null;
+		channel.close();
+		fis.close();
+	}
+
+}
@@ -0,0 +1,211 @@
+package util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output that deflates blocks of block_size bytes on a shared thread
+ * pool while the caller keeps writing. Each block becomes one gzip member,
+ * written in order, so the result is a valid multi-member gzip file that
+ * any gzip reader sees as the plain concatenation of the data.
+ *
+ * The pool is shared by all streams and has -Dgzip.threads threads
+ * (default one per core). At most 2 blocks per pool thread are in flight
+ * per stream; write() waits for the oldest one beyond that. Not
+ * synchronized; use from one thread.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	private static ExecutorService pool = null;
+	private static int poolThreads = 0;
+
+	/**
+	 * Per pool thread deflate state, reused across blocks.
+	 */
+	static class Compressor {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[0];
+	}
+
+	private static final ThreadLocal<Compressor> compressors = new ThreadLocal<Compressor>() {
+		protected Compressor initialValue() {
+			return new Compressor();
+		}
+	};
+
+	private static synchronized ExecutorService pool() {
+		if (pool == null) {
+			poolThreads = Integer.getInteger("gzip.threads", Runtime.getRuntime().availableProcessors());
+			poolThreads = Math.max(1, poolThreads);
+			pool = Executors.newFixedThreadPool(poolThreads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "gzip");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	private OutputStream out = null;
+	private int block_size = DEFAULT_BLOCK_SIZE;
+	private int max_pending = 2;
+
+	private byte[] block = null;
+	private int blockLen = 0;
+	private long written = 0;
+	private boolean closed = false;
+
+	// Blocks being deflated, oldest first, and their input buffers
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private ArrayDeque<byte[]> pendingInput = new ArrayDeque<byte[]>();
+	// Input buffers of written blocks, for reuse
+	private ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+
+	public ParallelGzipOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int blockSize) {
+		this.out = out;
+		block_size = blockSize;
+		pool();
+		max_pending = 2 * poolThreads;
+		block = new byte[block_size];
+	}
+
+	public void write(int b) throws IOException {
+		if (blockLen == block_size) submitBlock();
+		block[blockLen++] = (byte) b;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (blockLen == block_size) submitBlock();
+			int n = Math.min(len, block_size - blockLen);
+			System.arraycopy(b, off, block, blockLen, n);
+			blockLen += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Hands the current block to the pool, first writing out finished
+	 * blocks so that no more than max_pending are in flight.
+	 */
+	private void submitBlock() throws IOException {
+		if (blockLen == 0) return;
+		while (pending.size() >= max_pending) {
+			writeOldest();
+		}
+		final byte[] data = block;
+		final int len = blockLen;
+		pending.add(pool().submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return member(data, len, compressors.get());
+			}
+		}));
+		pendingInput.add(data);
+		block = free.isEmpty() ? new byte[block_size] : free.poll();
+		blockLen = 0;
+	}
+
+	private void writeOldest() throws IOException {
+		byte[] member;
+		try {
+			member = pending.peek().get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("Compression failed", e.getCause());
+		}
+		pending.poll();
+		free.add(pendingInput.poll());
+		out.write(member);
+		written += member.length;
+	}
+
+	/**
+	 * Compresses and writes out everything written so far, as complete
+	 * gzip members. Small flushes make for small members and a worse
+	 * compression ratio.
+	 */
+	public void flush() throws IOException {
+		submitBlock();
+		while (!pending.isEmpty()) {
+			writeOldest();
+		}
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Compressed bytes written to the underlying stream so far. */
+	public long compressedSize() {
+		return written;
+	}
+
+	/**
+	 * One gzip member holding data[0, len).
+	 */
+	static byte[] member(byte[] data, int len, Compressor c) {
+		c.crc.reset();
+		c.crc.update(data, 0, len);
+		Deflater deflater = c.deflater;
+		deflater.reset();
+		deflater.setInput(data, 0, len);
+		deflater.finish();
+		// Incompressible data grows by a few bytes per 16K stored block
+		int size = 10 + len + (len >> 10) + 64 + 8;
+		if (c.buf.length < size) c.buf = new byte[size];
+		byte[] buf = c.buf;
+		buf[0] = 0x1f;
+		buf[1] = (byte) 0x8b;
+		buf[2] = Deflater.DEFLATED;
+		buf[3] = 0;
+		buf[4] = buf[5] = buf[6] = buf[7] = buf[8] = 0;
+		buf[9] = (byte) 0xff;
+		int n = 10;
+		while (!deflater.finished()) {
+			if (n == buf.length - 8) {
+				byte[] nb = new byte[buf.length * 2];
+				System.arraycopy(buf, 0, nb, 0, n);
+				buf = c.buf = nb;
+			}
+			n += deflater.deflate(buf, n, buf.length - 8 - n);
+		}
+		long crc = c.crc.getValue();
+		for (int i = 0; i < 4; i++) {
+			buf[n + i] = (byte) (crc >>> (8 * i));
+			buf[n + 4 + i] = (byte) (len >>> (8 * i));
+		}
+		n += 8;
+		byte[] member = new byte[n];
+		System.arraycopy(buf, 0, member, 0, n);
+		return member;
+	}
+
+}
@@ -0,0 +1,180 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads the wrapped stream on a background thread into a ring of large
+ * buffers, so that e.g. inflating a gzip input overlaps with parsing it.
+ * At most numBuffers * bufferSize bytes are read ahead. Not synchronized;
+ * use from one thread.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	/**
+	 * A filled buffer, or the end of the input (len < 0), or a read error.
+	 */
+	private static class Chunk {
+		byte[] buf;
+		int len = 0;
+		IOException error = null;
+
+		Chunk(int size) {
+			buf = new byte[size];
+		}
+
+		Chunk(IOException error) {
+			this.error = error;
+		}
+	}
+
+	private InputStream in = null;
+	private ArrayBlockingQueue<Chunk> full = null;
+	private ArrayBlockingQueue<Chunk> free = null;
+	private Thread reader = null;
+	private volatile boolean closed = false;
+
+	private Chunk cur = null;
+	private int pos = 0;
+	private boolean eof = false;
+
+	public ReadAheadInputStream(InputStream in) {
+		this(in, IO.BUFFER_SIZE, 4);
+	}
+
+	public ReadAheadInputStream(InputStream in, int bufferSize, int numBuffers) {
+		this.in = in;
+		// One more slot for an error chunk behind the last buffer
+		full = new ArrayBlockingQueue<Chunk>(numBuffers + 1);
+		free = new ArrayBlockingQueue<Chunk>(numBuffers);
+		for (int i = 0; i < numBuffers; i++) {
+			free.add(new Chunk(bufferSize));
+		}
+		reader = new Thread(new Runnable() {
+			public void run() {
+				fill();
+			}
+		}, "read-ahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Background loop: fills free buffers until the end of the input. On
+	 * a failure the bytes read so far are passed on before the error, so
+	 * that the reader gets everything up to the failure.
+	 */
+	private void fill() {
+		try {
+			while (!closed) {
+				Chunk c = free.take();
+				c.len = 0;
+				IOException error = null;
+				try {
+					while (c.len < c.buf.length) {
+						int n = in.read(c.buf, c.len, c.buf.length - c.len);
+						if (n < 0) break;
+						c.len += n;
+					}
+				} catch (IOException e) {
+					error = e;
+				} catch (RuntimeException e) {
+					error = new IOException("Read-ahead failed", e);
+				} catch (Error e) {
+					error = new IOException("Read-ahead failed", e);
+				}
+				if (error != null) {
+					if (closed) return;
+					if (c.len > 0) {
+						full.put(c);
+					} else {
+						free.add(c);
+					}
+					full.put(new Chunk(error));
+					return;
+				}
+				if (c.len == 0) {
+					c.len = -1;
+					full.put(c);
+					return;
+				}
+				full.put(c);
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		}
+	}
+
+	/**
+	 * Makes cur a chunk with unread bytes; false at the end of the input.
+	 */
+	private boolean next() throws IOException {
+		if (eof) return false;
+		if (cur != null && pos < cur.len) return true;
+		if (cur != null) {
+			free.add(cur);
+			cur = null;
+		}
+		Chunk c;
+		try {
+			c = full.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while reading ahead");
+		}
+		if (c.error != null) {
+			eof = true;
+			throw c.error;
+		}
+		if (c.len < 0) {
+			eof = true;
+			return false;
+		}
+		cur = c;
+		pos = 0;
+		return true;
+	}
+
+	public int read() throws IOException {
+		if (!next()) return -1;
+		return cur.buf[pos++] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (!next()) return -1;
+		int n = Math.min(len, cur.len - pos);
+		System.arraycopy(cur.buf, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && next()) {
+			int k = (int) Math.min(n - skipped, cur.len - pos);
+			pos += k;
+			skipped += k;
+		}
+		return skipped;
+	}
+
+	public int available() {
+		return cur == null ? 0 : Math.max(0, cur.len - pos);
+	}
+
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		// Let the reader finish its current read before closing under it
+		reader.interrupt();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		in.close();
+	}
+
+}
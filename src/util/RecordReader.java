@@ -0,0 +1,37 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads newline-terminated records as ByteSlice views, without decoding
+ * them. Plain files are memory-mapped, gzip ones (by their magic bytes)
+ * streamed.
+ */
+public abstract class RecordReader {
+
+	protected ByteSlice line = new ByteSlice();
+
+	/**
+	 * Returns the next record without its line terminator, or null at the
+	 * end. The slice (and anything cut from it) is only valid until the
+	 * next call.
+	 */
+	public abstract ByteSlice next() throws IOException;
+
+	/**
+	 * Offset of the next record in the underlying (possibly decompressed)
+	 * input, counting any start offset given to the reader.
+	 */
+	public abstract long position();
+
+	public abstract void close() throws IOException;
+
+	public static RecordReader open(String path) throws IOException {
+		if (IO.isGzipFile(new File(path))) {
+			return new StreamRecordReader(IO.openInputStream(path));
+		}
+		return new MappedRecordReader(new File(path));
+	}
+
+}
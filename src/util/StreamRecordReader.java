@@ -0,0 +1,89 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * RecordReader over an InputStream, e.g. a decompressing one. Records are
+ * sliced out of a byte buffer that grows to fit the longest record.
+ */
+public class StreamRecordReader extends RecordReader {
+
+	private InputStream in = null;
+	private byte[] buf = null;
+	private ByteBuffer bb = null;
+	// Start of the next record and end of the valid bytes in buf
+	private int start = 0;
+	private int end = 0;
+	private boolean eof = false;
+	private long pos = 0;
+
+	public StreamRecordReader(InputStream in) {
+		this(in, IO.BUFFER_SIZE);
+	}
+
+	public StreamRecordReader(InputStream in, int bufferSize) {
+		this(in, bufferSize, 0);
+	}
+
+	/**
+	 * For a stream that has already skipped offset bytes, so that
+	 * position() counts from the start of the input.
+	 */
+	public StreamRecordReader(InputStream in, int bufferSize, long offset) {
+		this.in = in;
+		buf = new byte[bufferSize];
+		bb = ByteBuffer.wrap(buf);
+		pos = offset;
+	}
+
+	public ByteSlice next() throws IOException {
+		int scan = start;
+		while (true) {
+			for (int i = scan; i < end; i++) {
+				if (buf[i] == '\n') return emit(i, i + 1);
+			}
+			if (eof) {
+				return start < end ? emit(end, end) : null;
+			}
+			scan = end;
+			if (start > 0) {
+				System.arraycopy(buf, start, buf, 0, end - start);
+				scan -= start;
+				end -= start;
+				start = 0;
+			}
+			if (end == buf.length) {
+				byte[] nb = new byte[buf.length * 2];
+				System.arraycopy(buf, 0, nb, 0, end);
+				buf = nb;
+				bb = ByteBuffer.wrap(buf);
+			}
+			int n = in.read(buf, end, buf.length - end);
+			if (n < 0) {
+				eof = true;
+			} else {
+				end += n;
+			}
+		}
+	}
+
+	private ByteSlice emit(int lineEnd, int next) {
+		int e = lineEnd;
+		if (e > start && buf[e - 1] == '\r') --e;
+		line.set(bb, start, e - start);
+		pos += next - start;
+		start = next;
+		return line;
+	}
+
+	public long position() {
+		return pos;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
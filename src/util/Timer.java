@@ -2,20 +2,30 @@ package util;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Container of time related utilities.
+ *
+ * Named timers (start/elapsed) are shared by all threads. Intervals
+ * passed to record() go into one fixed-size histogram per name, with
+ * atomic counters, so memory does not grow with the number of threads
+ * that record. All times come from System.nanoTime().
  */
 public class Timer {
 
-	private static long birth = now();
-	private static Hashtable<String, Long> points = new Hashtable<String, Long>();
+	private static volatile long birth = now();
+	private static ConcurrentHashMap<String, Long> points = new ConcurrentHashMap<String, Long>();
+
+	// Intervals recorded under each name, by all threads
+	private static final ConcurrentHashMap<String, Histogram> histograms =
+			new ConcurrentHashMap<String, Histogram>();
 	
-	private static long secondInMillis = 1000;
-	private static long minuteInMillis = secondInMillis * 60;
+	private static long secondInNanos = 1000000000L;
+	private static long minuteInNanos = secondInNanos * 60;
 	
 	/**
 	 * Resets the global starting point of the Timer.
@@ -41,11 +51,11 @@ public class Timer {
 	 * The format is [XX minutes, YYseconds].
 	 */
 	public static String elapsed(String name) {
-		if(!points.containsKey(name)) {
+		Long start = points.get(name);
+		if(start == null) {
 			return "[UNKNOWN TIMER]";
 		}else {
-			long diff = now() - points.get(name);
-			return readTime(diff);
+			return readTime(now() - start);
 		}
 	}
 
@@ -55,20 +65,20 @@ public class Timer {
 	 * @param name the name of the timer
 	 */
 	public static double elapsedSeconds(String name) {
-		if(!points.containsKey(name)) {
+		Long start = points.get(name);
+		if(start == null) {
 			return -1;
 		}else {
-			long diff = now() - points.get(name);
-			return (diff / 1000);
+			return (now() - start) / 1e9;
 		}
 	}
 
 	public static double elapsedMilliSeconds(String name) {
-		if(!points.containsKey(name)) {
+		Long start = points.get(name);
+		if(start == null) {
 			return -1;
 		}else {
-			long diff = now() - points.get(name);
-			return diff;
+			return (now() - start) / 1e6;
 		}
 	}
 
@@ -77,7 +87,7 @@ public class Timer {
 	 */
 	public static double elapsedSeconds() {
 			long diff = now() - birth;
-			return (diff / 1000.0);
+			return (diff / 1e9);
 	}
 
 	/**
@@ -96,8 +106,12 @@ public class Timer {
 		System.err.println("TIMER " + name + ": " + elapsed(name));
 	}
 
-	private static long now() {
-		return System.currentTimeMillis();
+	/**
+	 * Returns a monotonic time stamp in nanoseconds, to be passed to
+	 * recordSince().
+	 */
+	public static long now() {
+		return System.nanoTime();
 	}
 
 	/**
@@ -107,28 +121,103 @@ public class Timer {
 		return readTime(now() - birth);
 	}
 
-	private static String readTime(long timeIntervalInMS) {
-		long min = timeIntervalInMS / minuteInMillis;
-		long sec = timeIntervalInMS / secondInMillis % 60;
-		long mm = timeIntervalInMS % 1000;
+	private static String readTime(long timeIntervalInNanos) {
+		long min = timeIntervalInNanos / minuteInNanos;
+		long sec = timeIntervalInNanos / secondInNanos % 60;
+		long mm = timeIntervalInNanos / 1000000 % 1000;
 		String t = String.format("[%d min, %d.%03d sec]", min, sec, mm);
 		return t;
 	}
+
+	/**
+	 * Adds an interval of the given length to the histogram for name.
+	 */
+	public static void record(String name, long nanos) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			Histogram nh = new Histogram();
+			h = histograms.putIfAbsent(name, nh);
+			if (h == null) h = nh;
+		}
+		h.record(nanos);
+	}
+
+	/**
+	 * Records the time since the given now() time stamp under name.
+	 */
+	public static void recordSince(String name, long start) {
+		record(name, now() - start);
+	}
+
+	/**
+	 * Returns a copy of the intervals recorded under name so far.
+	 */
+	public static Histogram stats(String name) {
+		Histogram total = new Histogram();
+		Histogram h = histograms.get(name);
+		if (h != null) total.merge(h);
+		return total;
+	}
+
+	/**
+	 * Prints count, mean, median, 99th percentile and maximum (in
+	 * milliseconds) of every recorded interval name.
+	 */
+	public static void printStats() {
+		TreeMap<String, Histogram> all = new TreeMap<String, Histogram>();
+		for (String name : histograms.keySet()) {
+			all.put(name, stats(name));
+		}
+		for (Map.Entry<String, Histogram> e : all.entrySet()) {
+			Histogram h = e.getValue();
+			System.err.println(String.format("TIMER %s: n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+					e.getKey(), h.count(), h.mean() / 1e6, h.percentile(50) / 1e6,
+					h.percentile(99) / 1e6, h.max() / 1e6));
+		}
+	}
 	
 	public static RunStat runStat = new RunStat();
 	
 	public static class RunStat{
+		// Number of most recent turns kept
+		private static final int MAX_TURNS = 1024;
+
 		public double groundSec = 0;
 		public double inferSec = 0;
 		public double inferOps = 0;
 		public long effectiveSteps = 0;
 		
-		public ArrayList<Double> turns = new ArrayList<Double>();
-		public ArrayList<Double> costs = new ArrayList<Double>();
+		// Ring buffers of the last MAX_TURNS turns
+		private double[] turns = new double[MAX_TURNS];
+		private double[] costs = new double[MAX_TURNS];
+		private long numTurns = 0;
+		
+		public synchronized void addTurn(double cost){
+			int i = (int) (numTurns % MAX_TURNS);
+			turns[i] = Timer.elapsedSeconds();
+			costs[i] = cost;
+			++ numTurns;
+		}
+		
+		public synchronized long getNumTurns(){
+			return numTurns;
+		}
+		
+		/**
+		 * Returns the cost of the most recent turn, or 0 if there was none.
+		 */
+		public synchronized double getLastCost(){
+			if (numTurns == 0) return 0;
+			return costs[(int) ((numTurns - 1) % MAX_TURNS)];
+		}
 		
-		public void addTurn(double cost){
-			turns.add(Timer.elapsedSeconds());
-			costs.add(cost);
+		/**
+		 * Returns the time (seconds since clock reset) of the most recent
+		 * turn, or 0 if there was none.
+		 */
+		public synchronized double getLastTurnTime(){
+			if (numTurns == 0) return 0;
+			return turns[(int) ((numTurns - 1) % MAX_TURNS)];
 		}
 		
 		public double getGroundTime(){